@@ -0,0 +1,83 @@
+package de.doering.dwca;
+
+import org.apache.commons.io.FileUtils;
+import org.gbif.dwc.DwcaWriter;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base state of all builder benchmarks.
+ * It creates the builder for a temporary repository, lets subclasses generate their local fixtures once per trial
+ * and opens a fresh archive writer for every iteration, so only the conversion of rows into records is measured.
+ *
+ * Benchmark methods declare the number of records they emit with @OperationsPerInvocation,
+ * so the throughput score reads as records per second and -prof gc reports the allocation per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Dlogback.configurationFile=logback-bench.xml"})
+public abstract class BuilderBenchmark<T extends AbstractBuilder> {
+  protected File repository;
+  protected File fixtures;
+  protected T builder;
+  protected DwcaWriter writer;
+  private File dwcaDir;
+  private int iteration;
+
+  protected abstract String source();
+
+  protected abstract T newBuilder(BuilderConfig cfg);
+
+  /**
+   * Generates the local input files the benchmark reads into the given, existing directory.
+   */
+  protected abstract void createFixtures(File dir) throws Exception;
+
+  @Setup(Level.Trial)
+  public void setupTrial() throws Exception {
+    repository = Files.createTempDirectory("bench-" + source()).toFile();
+    fixtures = new File(repository, "fixtures");
+    FileUtils.forceMkdir(fixtures);
+    BuilderConfig cfg = new BuilderConfig();
+    cfg.repository = repository;
+    cfg.source = source();
+    cfg.noCache = true;
+    builder = newBuilder(cfg);
+    createFixtures(fixtures);
+  }
+
+  @Setup(Level.Iteration)
+  public void openWriter() throws IOException {
+    dwcaDir = new File(repository, "dwca-" + iteration++);
+    writer = builder.openWriter(dwcaDir);
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() throws IOException {
+    writer.close();
+    FileUtils.deleteQuietly(dwcaDir);
+    FileUtils.deleteQuietly(new File(repository, dwcaDir.getName() + ".zip"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    FileUtils.deleteQuietly(repository);
+  }
+}
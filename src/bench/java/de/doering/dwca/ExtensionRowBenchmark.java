@@ -0,0 +1,100 @@
+package de.doering.dwca;
+
+import de.doering.dwca.utils.HttpUtils;
+import org.apache.commons.io.FileUtils;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing extension records through a new map per row with a reused ExtensionRow,
+ * using the archive writer of the builders which takes the values of an ExtensionRow without a map.
+ * Each extension record gets its own core record as in the builders.
+ * Run with -prof gc to compare the allocation per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Dlogback.configurationFile=logback-bench.xml"})
+public class ExtensionRowBenchmark {
+  private static final int ROWS = 10000;
+
+  private File dir;
+  private DwcaWriter writer;
+  private ExtensionRow distribution;
+  private String[] localities;
+  private long id;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    localities = new String[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      localities[i] = "Locality " + i;
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void openWriter() throws IOException {
+    dir = Files.createTempDirectory("bench-ext").toFile();
+    writer = new ZipDwcaWriter(DwcTerm.Taxon, new File(dir, "dwca.zip"), null, -1, new BuildMetrics("bench", new HttpUtils(null, null)));
+    distribution = new ExtensionRow(writer, GbifTerm.Distribution,
+        DwcTerm.locality, DwcTerm.occurrenceStatus, DwcTerm.occurrenceRemarks, DcTerm.source);
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() throws IOException {
+    writer.close();
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void hashMap() throws IOException {
+    for (String locality : localities) {
+      writer.newRecord(String.valueOf(id++));
+      Map<Term, String> data = new HashMap<Term, String>();
+      data.put(DwcTerm.locality, locality);
+      data.put(DwcTerm.occurrenceStatus, "present");
+      data.put(DwcTerm.occurrenceRemarks, "Breeding region");
+      data.put(DcTerm.source, "IOC");
+      writer.addExtensionRecord(GbifTerm.Distribution, data);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void extensionRow() throws IOException {
+    for (String locality : localities) {
+      writer.newRecord(String.valueOf(id++));
+      distribution.set(DwcTerm.locality, locality);
+      distribution.set(DwcTerm.occurrenceStatus, "present");
+      distribution.set(DwcTerm.occurrenceRemarks, "Breeding region");
+      distribution.set(DcTerm.source, "IOC");
+      distribution.write();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package de.doering.dwca.clements;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts a synthetic Clements checklist workbook file, including the decoding of the xlsx itself.
+ */
+public class ClementsBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int TAXA = 10000;
+  private static final int REFERENCES = 50;
+
+  private File xlsx;
+
+  @Override
+  protected String source() {
+    return "clements";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws IOException {
+    xlsx = new File(dir, "clements.xlsx");
+    try (Workbook wb = new XSSFWorkbook(); OutputStream out = new FileOutputStream(xlsx)) {
+      Sheet taxa = wb.createSheet("Clements Checklist");
+      for (int i = 1; i <= TAXA; i++) {
+        boolean species = i % 4 != 0;
+        cells(taxa.createRow(i - 1),
+            String.valueOf(i),
+            "",
+            species ? "" : "Subspecies of Genus" + (i / 20) + " species" + (i - 1),
+            species ? "species" : "subspecies",
+            "Common bird " + i,
+            "Genus" + (i / 20) + " species" + i + (species ? "" : " minor"),
+            "Forests of South America from Colombia to Peru",
+            "Passeriformes",
+            "Family" + (i / 300) + "idae (Family birds)",
+            i % 50 == 0 ? "1" : "",
+            i % 50 == 0 ? "1850" : ""
+        );
+      }
+      Sheet refs = wb.createSheet("References");
+      for (int i = 1; i <= REFERENCES; i++) {
+        Row row = refs.createRow(i - 1);
+        cells(row, "Ref" + i, "", "Author " + i, String.valueOf(1900 + i), "Title of reference " + i, "Journal " + (i % 7));
+        Hyperlink link = wb.getCreationHelper().createHyperlink(HyperlinkType.URL);
+        link.setAddress("https://doi.org/10.1000/ref" + i);
+        row.getCell(4).setHyperlink(link);
+      }
+      wb.write(out);
+    }
+  }
+
+  private static void cells(Row row, String... values) {
+    for (int i = 0; i < values.length; i++) {
+      row.createCell(i).setCellValue(values[i]);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TAXA)
+  public void parseWorkbook() throws Exception {
+    builder.parseWorkbook(xlsx);
+  }
+}
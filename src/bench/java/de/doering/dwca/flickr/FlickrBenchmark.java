@@ -0,0 +1,68 @@
+package de.doering.dwca.flickr;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.gbif.dwc.terms.DwcTerm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Writes synthetic Flickr images as they come out of the photo conversion, so no Flickr API access is needed.
+ */
+public class FlickrBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int IMAGES = 10000;
+
+  private FlickrImage[] images;
+
+  @Override
+  protected String source() {
+    return "flickr";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) {
+    images = new FlickrImage[IMAGES];
+    Date date = new Date();
+    for (int i = 0; i < IMAGES; i++) {
+      FlickrImage img = new FlickrImage();
+      img.setId(String.valueOf(5000000000L + i));
+      img.setLink("https://www.flickr.com/photos/owner" + (i % 100) + "/" + img.getId());
+      img.setImage("https://live.staticflickr.com/65535/" + img.getId() + "_abcdef_b.jpg");
+      img.setThumb("https://live.staticflickr.com/65535/" + img.getId() + "_abcdef_s.jpg");
+      img.setTitle("Bird " + i);
+      img.setDescription("Seen at the lake");
+      img.setScientificName("Genus" + (i / 20) + " species" + i);
+      img.setPhotographer("Photographer " + (i % 100));
+      img.setOwner("owner" + (i % 100));
+      img.setLicense("https://creativecommons.org/licenses/by/2.0/");
+      img.setDateRecorded(date);
+      img.setLatitude(52.5f + i % 10);
+      img.setLongitude(13.4f + i % 10);
+      img.setAccuracy(16);
+      img.setAttribute(DwcTerm.country, "Germany");
+      images[i] = img;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(IMAGES)
+  public int writeImages() throws Exception {
+    // a new image writer each time, as it skips images it has seen before
+    ImageWriter iw = new ImageWriter(writer, IMAGES);
+    int written = 0;
+    for (FlickrImage img : images) {
+      if (iw.writeImage(img)) {
+        written++;
+      }
+    }
+    return written;
+  }
+}
@@ -0,0 +1,77 @@
+package de.doering.dwca.ioc;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses a synthetic IOC world bird list XML held in memory through the SAX handler of the builder.
+ */
+public class IocBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int SPECIES = 10000;
+  private static final int GENUS_SIZE = 5;
+  private static final int FAMILY_SIZE = 50;
+  // species, genera and families
+  private static final int TAXA = SPECIES + SPECIES / GENUS_SIZE + SPECIES / FAMILY_SIZE + 1;
+
+  private byte[] xml;
+  private SAXParser parser;
+
+  @Override
+  protected String source() {
+    return "ioc";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<ioclist version=\"14.1\" year=\"2024\"><list>");
+    sb.append("<order><latin_name>PASSERIFORMES</latin_name>");
+    for (int i = 0; i < SPECIES; i++) {
+      if (i % FAMILY_SIZE == 0) {
+        if (i > 0) {
+          sb.append("</genus></family>");
+        }
+        sb.append("<family><latin_name>Family").append(i / FAMILY_SIZE).append("idae</latin_name>")
+            .append("<english_name>Family birds</english_name>");
+      } else if (i % GENUS_SIZE == 0) {
+        sb.append("</genus>");
+      }
+      if (i % GENUS_SIZE == 0) {
+        sb.append("<genus><latin_name>Genus").append(i / GENUS_SIZE).append("</latin_name><authority>Linnaeus, 1758</authority>");
+      }
+      sb.append("<species").append(i % 100 == 0 ? " extinct=\"yes\"" : "").append(">")
+          .append("<latin_name>species").append(i).append("</latin_name>")
+          .append("<authority>(Author, 1850)</authority>")
+          .append("<english_name>Common bird ").append(i).append("</english_name>")
+          .append("<breeding_regions>NA, SA</breeding_regions>")
+          .append("<breeding_subregions>w Canada to s Mexico</breeding_subregions>")
+          .append("<nonbreeding_regions>MA</nonbreeding_regions>")
+          .append("</species>");
+    }
+    sb.append("</genus></family></order></list></ioclist>");
+    xml = sb.toString().getBytes(StandardCharsets.UTF_8);
+    parser = SAXParserFactory.newInstance().newSAXParser();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TAXA)
+  public IocXmlHandler parse() throws Exception {
+    IocXmlHandler handler = new IocXmlHandler(writer);
+    parser.parse(new InputSource(new ByteArrayInputStream(xml)), handler);
+    return handler;
+  }
+}
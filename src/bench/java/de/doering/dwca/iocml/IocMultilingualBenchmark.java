@@ -0,0 +1,88 @@
+package de.doering.dwca.iocml;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts a synthetic multilingual IOC workbook, including the decoding of the xlsx itself.
+ * As in the real sheet the header and every species span three rows, each holding every third language column.
+ */
+public class IocMultilingualBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int SPECIES = 5000;
+  private static final int FAMILY_SIZE = 25;
+  private static final String[] LANGUAGES = {"English", "French", "Dutch", "German", "Spanish", "Polish", "Italian", "Danish", "Swedish"};
+  // first language column, right after the scientific name
+  private static final int COL_LANG = 4;
+  private static final int WIDTH = COL_LANG + LANGUAGES.length;
+
+  private File xlsx;
+
+  @Override
+  protected String source() {
+    return "iocml";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws IOException {
+    xlsx = new File(dir, "multiling.xlsx");
+    try (Workbook wb = new XSSFWorkbook(); OutputStream out = new FileOutputStream(xlsx)) {
+      Sheet sheet = wb.createSheet("List");
+      int r = 0;
+      r = flattened(sheet, r, "Scientific Name", LANGUAGES);
+      sheet.createRow(r++).createCell(1).setCellValue("PASSERIFORMES");
+      for (int i = 0; i < SPECIES; i++) {
+        if (i % FAMILY_SIZE == 0) {
+          sheet.createRow(r++).createCell(2).setCellValue("Family" + (i / FAMILY_SIZE) + "idae");
+        }
+        String[] names = new String[LANGUAGES.length];
+        for (int l = 0; l < names.length; l++) {
+          names[l] = LANGUAGES[l] + " bird " + i;
+        }
+        r = flattened(sheet, r, "Genus" + (i / 10) + " species" + i, names);
+      }
+      wb.write(out);
+    }
+  }
+
+  /**
+   * Spreads the name and values over three rows, the first row holding the name and every third value.
+   * @return the next free row index
+   */
+  private static int flattened(Sheet sheet, int r, String name, String[] values) {
+    Row[] rows = {sheet.createRow(r), sheet.createRow(r + 1), sheet.createRow(r + 2)};
+    rows[0].createCell(3).setCellValue(name);
+    for (int i = 0; i < values.length; i++) {
+      int col = COL_LANG + i;
+      rows[(col - 3) % 3].createCell(col).setCellValue(values[i]);
+    }
+    // all rows as wide as the first, which determines the flattened width
+    for (Row row : rows) {
+      if (row.getCell(WIDTH - 1) == null) {
+        row.createCell(WIDTH - 1).setCellValue("");
+      }
+    }
+    return r + 3;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPECIES)
+  public void parseData() throws Exception {
+    builder.parseData(xlsx);
+  }
+}
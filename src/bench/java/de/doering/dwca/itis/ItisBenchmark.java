@@ -0,0 +1,138 @@
+package de.doering.dwca.itis;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Converts a synthetic sqlite sample with the subset of the ITIS schema the builder queries.
+ * Every tenth name is a synonym, every taxon has a vernacular name, a distribution and an original description.
+ */
+public class ItisBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int TAXA = 20000;
+  private static final int PUBLICATIONS = 500;
+
+  private File sqlite;
+
+  @Override
+  protected String source() {
+    return "itis";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws SQLException {
+    sqlite = new File(dir, "ITIS.sqlite");
+    createSample(sqlite);
+  }
+
+  /**
+   * Creates the synthetic sample database.
+   */
+  static void createSample(File sqlite) throws SQLException {
+    try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + sqlite.getAbsolutePath())) {
+      c.setAutoCommit(false);
+      try (Statement st = c.createStatement()) {
+        st.execute("CREATE TABLE taxonomic_units (tsn INTEGER PRIMARY KEY, parent_tsn INTEGER, rank_id INTEGER, kingdom_id INTEGER, taxon_author_id INTEGER, name_usage TEXT, unaccept_reason TEXT, completeness_rtng TEXT)");
+        st.execute("CREATE TABLE longnames (tsn INTEGER PRIMARY KEY, completename TEXT)");
+        st.execute("CREATE TABLE taxon_unit_types (kingdom_id INTEGER, rank_id INTEGER, rank_name TEXT, PRIMARY KEY (kingdom_id, rank_id))");
+        st.execute("CREATE TABLE taxon_authors_lkp (taxon_author_id INTEGER PRIMARY KEY, taxon_author TEXT)");
+        st.execute("CREATE TABLE synonym_links (tsn INTEGER, tsn_accepted INTEGER)");
+        st.execute("CREATE TABLE reference_links (tsn INTEGER, doc_id_prefix TEXT, documentation_id INTEGER, original_desc_ind TEXT)");
+        st.execute("CREATE TABLE publications (publication_id INTEGER PRIMARY KEY, reference_author TEXT, title TEXT, publication_name TEXT, listed_pub_date TEXT, actual_pub_date TEXT, publisher TEXT, pages TEXT, isbn TEXT, issn TEXT)");
+        st.execute("CREATE TABLE vernaculars (tsn INTEGER, vernacular_name TEXT, language TEXT, approved_ind TEXT)");
+        st.execute("CREATE TABLE geographic_div (tsn INTEGER, geographic_value TEXT)");
+        st.execute("CREATE INDEX synonym_links_tsn ON synonym_links (tsn)");
+        st.execute("CREATE INDEX reference_links_tsn ON reference_links (tsn)");
+        st.execute("CREATE INDEX vernaculars_tsn ON vernaculars (tsn)");
+        st.execute("CREATE INDEX geographic_div_tsn ON geographic_div (tsn)");
+        st.execute("INSERT INTO taxon_unit_types VALUES (5, 220, 'Species'), (5, 180, 'Genus'), (5, 140, 'Family')");
+      }
+
+      try (PreparedStatement pub = c.prepareStatement("INSERT INTO publications VALUES (?,?,?,?,?,?,?,?,?,?)");
+           PreparedStatement auth = c.prepareStatement("INSERT INTO taxon_authors_lkp VALUES (?,?)")) {
+        for (int p = 1; p <= PUBLICATIONS; p++) {
+          pub.setInt(1, p);
+          pub.setString(2, "Author " + p);
+          pub.setString(3, "Title of publication " + p);
+          pub.setString(4, "Journal " + (p % 50));
+          pub.setString(5, (1850 + p % 170) + "-01-01");
+          pub.setString(6, String.valueOf(1850 + p % 170));
+          pub.setString(7, "Publisher " + (p % 10));
+          pub.setString(8, p + "-" + (p + 10));
+          pub.setString(9, p % 3 == 0 ? "978-3-16-148410-" + (p % 10) : null);
+          pub.setString(10, p % 3 == 1 ? "0317-8471" : null);
+          pub.addBatch();
+          auth.setInt(1, p);
+          auth.setString(2, "Author " + p + ", " + (1850 + p % 170));
+          auth.addBatch();
+        }
+        pub.executeBatch();
+        auth.executeBatch();
+      }
+
+      try (PreparedStatement tu = c.prepareStatement("INSERT INTO taxonomic_units VALUES (?,?,?,?,?,?,?,?)");
+           PreparedStatement ln = c.prepareStatement("INSERT INTO longnames VALUES (?,?)");
+           PreparedStatement syn = c.prepareStatement("INSERT INTO synonym_links VALUES (?,?)");
+           PreparedStatement ref = c.prepareStatement("INSERT INTO reference_links VALUES (?, 'PUB', ?, ?)");
+           PreparedStatement vern = c.prepareStatement("INSERT INTO vernaculars VALUES (?,?,'English','Y')");
+           PreparedStatement geo = c.prepareStatement("INSERT INTO geographic_div VALUES (?,?)")) {
+        for (int tsn = 1; tsn <= TAXA; tsn++) {
+          boolean synonym = tsn % 10 == 0;
+          tu.setInt(1, tsn);
+          tu.setInt(2, synonym ? 0 : tsn / 100);
+          tu.setInt(3, 220);
+          tu.setInt(4, 5);
+          tu.setInt(5, 1 + tsn % PUBLICATIONS);
+          tu.setString(6, synonym ? "not accepted" : "accepted");
+          tu.setString(7, synonym ? "synonym" : null);
+          tu.setString(8, "partial");
+          tu.addBatch();
+          ln.setInt(1, tsn);
+          ln.setString(2, "Genus" + (tsn / 100) + " species" + tsn);
+          ln.addBatch();
+          if (synonym) {
+            syn.setInt(1, tsn);
+            syn.setInt(2, tsn - 1);
+            syn.addBatch();
+          }
+          ref.setInt(1, tsn);
+          ref.setInt(2, 1 + tsn % PUBLICATIONS);
+          ref.setString(3, "Y");
+          ref.addBatch();
+          vern.setInt(1, tsn);
+          vern.setString(2, "common name " + tsn);
+          vern.addBatch();
+          geo.setInt(1, tsn);
+          geo.setString(2, tsn % 2 == 0 ? "North America" : "Europe & Northern Asia (excluding China)");
+          geo.addBatch();
+        }
+        tu.executeBatch();
+        ln.executeBatch();
+        syn.executeBatch();
+        ref.executeBatch();
+        vern.executeBatch();
+        geo.executeBatch();
+      }
+      c.commit();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TAXA)
+  public void processSql() throws Exception {
+    builder.processSql(sqlite);
+  }
+}
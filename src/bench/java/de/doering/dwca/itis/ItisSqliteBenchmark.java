@@ -0,0 +1,55 @@
+package de.doering.dwca.itis;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a full conversion of a real ITIS.sqlite download, given with -p database=/path/to/ITIS.sqlite.
+ * Without a database it falls back to the synthetic sample of ItisBenchmark.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ItisSqliteBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+
+  @Param("")
+  public String database;
+
+  private File sqlite;
+
+  @Override
+  protected String source() {
+    return "itis";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws Exception {
+    if (database.isEmpty()) {
+      sqlite = new File(dir, "ITIS.sqlite");
+      ItisBenchmark.createSample(sqlite);
+    } else {
+      sqlite = new File(database);
+    }
+  }
+
+  @Benchmark
+  public void processSql() throws Exception {
+    builder.processSql(sqlite);
+  }
+}
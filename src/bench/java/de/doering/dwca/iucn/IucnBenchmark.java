@@ -0,0 +1,93 @@
+package de.doering.dwca.iucn;
+
+import de.doering.dwca.BuilderBenchmark;
+import de.doering.dwca.BuilderConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a synthetic IUCN download with the same tables and columns as the real one.
+ * Every taxon has one assessment, DOI, reference and credit, two common names and one synonym.
+ */
+public class IucnBenchmark extends BuilderBenchmark<ArchiveBuilder> {
+  private static final int TAXA = 10000;
+  private static final String[] CATEGORIES = {"Least Concern", "Vulnerable", "Endangered", "Extinct", "Data Deficient", "Lower Risk/near threatened"};
+  private static final String[] LANGUAGES = {"English", "French", "Spanish", "German"};
+
+  private final List<File> files = new ArrayList<>();
+
+  @Override
+  protected String source() {
+    return "iucn";
+  }
+
+  @Override
+  protected ArchiveBuilder newBuilder(BuilderConfig cfg) {
+    return new ArchiveBuilder(cfg);
+  }
+
+  @Override
+  protected void createFixtures(File dir) throws IOException {
+    try (PrintWriter tax = csv(dir, "taxonomy.csv", "internalTaxonId,scientificName,kingdomName,phylumName,className,orderName,familyName,genusName,speciesName,infraType,infraName,infraAuthority,subpopulationName,authority,taxonomicNotes");
+         PrintWriter ass = csv(dir, "assessments.csv", "assessmentId,internalTaxonId,scientificName,redlistCategory,redlistCriteria,yearPublished,assessmentDate,criteriaVersion,language,rationale,habitat,threats,population,populationTrend,range,useTrade,systems,conservationActions,realm,yearLastSeen,possiblyExtinct,possiblyExtinctInTheWild,scopes");
+         PrintWriter com = csv(dir, "common_names.csv", "internalTaxonId,scientificName,name,language,main");
+         PrintWriter doi = csv(dir, "dois.csv", "assessmentId,scientificName,internalTaxonId,doi");
+         PrintWriter ref = csv(dir, "references.csv", "assessmentId,internalTaxonId,scientificName,author,citation,year,title");
+         PrintWriter cre = csv(dir, "credits.csv", "assessmentId,internalTaxonId,scientificName,type,text,full,value,order");
+         PrintWriter syn = csv(dir, "synonyms.csv", "internalTaxonId,scientificName,name,genusName,speciesName,speciesAuthor,infraType,infraRankAuthor")
+    ) {
+      for (int i = 1; i <= TAXA; i++) {
+        String id = String.valueOf(1000 + i);
+        String assessmentId = String.valueOf(900000 + i);
+        String genus = "Genus" + (i / 20);
+        String species = "species" + i;
+        String name = genus + " " + species;
+        boolean infra = i % 10 == 0;
+        row(tax, id, name, "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "FAMILY" + (i / 200), genus, species,
+            infra ? "ssp." : "", infra ? "minor" : "", "", "", "(Linnaeus, 1758)", "Notes on " + name);
+        row(ass, assessmentId, id, name, CATEGORIES[i % CATEGORIES.length], "A2c", "2020", "2019-06-01", "3.1", "English",
+            "Rationale of " + name, "Forest", "Logging", "Decreasing", "Decreasing", "Range", "", "Terrestrial", "", "Neotropical", "", "false", "false", "Global");
+        row(com, id, name, "Common " + species, LANGUAGES[i % LANGUAGES.length], "true");
+        row(com, id, name, "Other " + species, LANGUAGES[(i + 1) % LANGUAGES.length], "false");
+        row(doi, assessmentId, name, id, "https://dx.doi.org/10.2305/IUCN.UK.2020-3.RLTS.T" + id + "A" + assessmentId + ".en");
+        row(ref, assessmentId, id, name, "Smith, J.", "Smith, J. 2000. Birds.", "2000", "Birds");
+        row(cre, assessmentId, id, name, "RedListAssessors", "BirdLife International", "BirdLife International", "", "1");
+        row(syn, id, name, genus + " old" + species, genus, "old" + species, "Author & Author", "", "");
+      }
+    }
+  }
+
+  private PrintWriter csv(File dir, String name, String header) throws IOException {
+    File f = new File(dir, name);
+    files.add(f);
+    PrintWriter w = new PrintWriter(f, StandardCharsets.UTF_8);
+    w.print(header);
+    w.print('\n');
+    return w;
+  }
+
+  private static void row(PrintWriter w, String... values) {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        w.print(',');
+      }
+      w.print('"');
+      w.print(values[i]);
+      w.print('"');
+    }
+    w.print('\n');
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TAXA)
+  public int parseDownload() throws Exception {
+    return builder.parseDownload(files);
+  }
+}
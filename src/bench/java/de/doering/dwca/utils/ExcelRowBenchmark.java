@@ -0,0 +1,93 @@
+package de.doering.dwca.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding spreadsheet cells on every access with a row view decoding each column once per row,
+ * accessing the columns like the Clements builder does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Dlogback.configurationFile=logback-bench.xml"})
+public class ExcelRowBenchmark {
+  private static final int ROWS = 10000;
+  private static final int COL_ID = 0;
+  private static final int COL_RANK = 3;
+  private static final int COL_NAME = 5;
+  private static final int COL_RANGE = 6;
+  private static final int COL_ORDER = 7;
+  private static final int COL_FAMILY = 8;
+  private static final int COL_EXTINCT = 9;
+  private static final int COL_EXTINCT_YEAR = 10;
+
+  private XlsxReader.Row[] rows;
+  private ExcelUtils.RowView view;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    rows = new XlsxReader.Row[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      boolean extinct = i % 50 == 0;
+      String[] values = {String.valueOf(i), null, null, " species ", "Common bird " + i,
+          "Genus" + (i / 20) + " species" + i, "Forests of South America from Colombia to Peru",
+          "Passeriformes", "Family" + (i / 300) + "idae (Family birds)", extinct ? "1" : null, extinct ? "1850" : null};
+      rows[i] = new XlsxReader.Row(i, values, null, Collections.emptyMap());
+    }
+    view = ExcelUtils.view(COL_ID, COL_RANK, COL_NAME, COL_RANGE, COL_ORDER, COL_FAMILY, COL_EXTINCT, COL_EXTINCT_YEAR);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void decodePerAccess(Blackhole bh) {
+    for (XlsxReader.Row row : rows) {
+      bh.consume(ExcelUtils.col(row, COL_ID));
+      bh.consume(ExcelUtils.col(row, COL_RANK));
+      bh.consume(ExcelUtils.col(row, COL_NAME));
+      bh.consume(ExcelUtils.col(row, COL_RANGE));
+      bh.consume(ExcelUtils.col(row, COL_ORDER));
+      bh.consume(ExcelUtils.col(row, COL_FAMILY));
+      bh.consume(ExcelUtils.col(row, COL_FAMILY));
+      bh.consume(ExcelUtils.col(row, COL_FAMILY));
+      bh.consume(ExcelUtils.col(row, COL_EXTINCT));
+      bh.consume(ExcelUtils.col(row, COL_EXTINCT_YEAR));
+      bh.consume(ExcelUtils.col(row, COL_EXTINCT_YEAR));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void rowView(Blackhole bh) {
+    for (XlsxReader.Row row : rows) {
+      view.read(row);
+      bh.consume(view.get(COL_ID));
+      bh.consume(view.get(COL_RANK));
+      bh.consume(view.get(COL_NAME));
+      bh.consume(view.get(COL_RANGE));
+      bh.consume(view.get(COL_ORDER));
+      bh.consume(view.get(COL_FAMILY));
+      bh.consume(view.get(COL_FAMILY));
+      bh.consume(view.get(COL_FAMILY));
+      bh.consume(view.get(COL_EXTINCT));
+      bh.consume(view.get(COL_EXTINCT_YEAR));
+      bh.consume(view.get(COL_EXTINCT_YEAR));
+    }
+  }
+}
@@ -1,11 +1,21 @@
 package de.doering.dwca;
 
 import com.beust.jcommander.internal.Nullable;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
 import com.google.common.io.Resources;
 import de.doering.dwca.utils.ExcelUtils;
 import de.doering.dwca.utils.HttpUtils;
+import de.doering.dwca.utils.Normalizers;
+import de.doering.dwca.utils.ReleaseRegistry;
+import de.doering.dwca.utils.XlsxReader;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.Row;
@@ -18,8 +28,8 @@ import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.api.vocabulary.Language;
 import org.gbif.dwc.DwcaWriter;
 import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
 import org.gbif.metadata.eml.EMLWriter;
-import org.gbif.utils.file.CompressionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,16 +38,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
 
 public abstract class AbstractBuilder implements Runnable {
   protected static Logger LOG = LoggerFactory.getLogger(AbstractBuilder.class);
+  private static HashCode codeHash;
   protected final Dataset dataset = new Dataset();
   protected final BuilderConfig cfg;
   protected final HttpUtils http;
+  // null if caching is disabled
+  protected final ReleaseRegistry releases;
   protected DwcaWriter writer;
+  protected final BuildMetrics metrics;
   private final DatasetType type;
 
   public AbstractBuilder(DatasetType type, BuilderConfig cfg) {
@@ -46,7 +71,10 @@ public abstract class AbstractBuilder implements Runnable {
 
   public AbstractBuilder(DatasetType type, BuilderConfig cfg, @Nullable String username, @Nullable String password) {
     this.cfg = cfg;
-    http = new HttpUtils(username, password);
+    http = new HttpUtils(username, password, cfg.downloadCacheDir());
+    http.setDownloadSegments(cfg.downloadSegments);
+    releases = cfg.cacheDir() == null ? null : new ReleaseRegistry(new File(cfg.cacheDir(), "releases.properties"));
+    metrics = new BuildMetrics(cfg.source, http);
     this.type = type;
   }
 
@@ -59,35 +87,239 @@ public abstract class AbstractBuilder implements Runnable {
 
   @Override
   public void run() {
+    final File dwcaDir = cfg.archiveDir();
+    String status = "FAILED";
+    metrics.register();
     try {
       // metadata defaults
       dataset.setLanguage(Language.ENGLISH);
       addMetadataProvider();
 
-      try {
-        writer = new DwcaWriter(type == DatasetType.CHECKLIST ? DwcTerm.Taxon : DwcTerm.Occurrence, cfg.archiveDir(), false);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      if (http.getCache() != null) {
+        int evicted = http.getCache().evict(Duration.ofDays(cfg.cacheMaxAgeDays));
+        if (evicted > 0) {
+          LOG.info("Evicted {} download cache entries unused for {} days", evicted, cfg.cacheMaxAgeDays);
+        }
+      }
+
+      File zip = new File(dwcaDir.getParentFile(), dwcaDir.getName() + ".zip");
+      File fingerprintFile = new File(dwcaDir.getParentFile(), dwcaDir.getName() + ".fingerprint");
+      metrics.phase("fingerprint");
+      String fingerprint = fingerprint();
+      if (fingerprint != null && !cfg.force && zip.exists() && fingerprintFile.exists()
+          && fingerprint.equals(FileUtils.readFileToString(fingerprintFile, StandardCharsets.UTF_8))) {
+        LOG.info("Inputs of {} unchanged since the last build, keeping existing archive {}", cfg.source, zip);
+        status = "SKIPPED";
+        return;
       }
+      // a failed build must never be taken as unchanged
+      FileUtils.deleteQuietly(fingerprintFile);
 
+      // data files are compressed into the zip as they are written, the directory only exists when kept
+      FileUtils.deleteDirectory(dwcaDir);
+      openWriter(zip, cfg.keepDir ? dwcaDir : null);
+      metrics.phase("parseData");
       parseData();
+      metrics.phase("addMetadata");
       addMetadata();
+      metrics.phase("writeMetadata");
       writeMetadata();
+      metrics.phase("close");
       writer.close();
-
-      // finish archive and zip it
-      final File dwcaDir = cfg.archiveDir();
-      LOG.info("Bundling archive at {}", dwcaDir.getAbsolutePath());
-      File zip = new File(dwcaDir.getParentFile(), dwcaDir.getName() + ".zip");
-      CompressionUtil.zipDir(dwcaDir, zip);
+      metrics.setBytesWritten(((ZipDwcaWriter) writer).getUncompressedBytes());
+      metrics.setArchiveBytes(zip.length());
       LOG.info("Dwc archive completed at {} !", zip);
+      if (fingerprint != null) {
+        FileUtils.writeStringToFile(fingerprintFile, fingerprint, StandardCharsets.UTF_8);
+      }
+      status = "COMPLETED";
 
     } catch (Exception e) {
       LOG.error("Error building dwc archive for {}", cfg.source, e);
+      if (writer instanceof ZipDwcaWriter) {
+        ((ZipDwcaWriter) writer).abort();
+      }
       throw new RuntimeException(e);
+
+    } finally {
+      metrics.finish(status);
+      metrics.unregister();
+      if (http.getCache() != null) {
+        LOG.info("Download cache for {}: {}", cfg.source, http.getCache().report());
+      }
+      LOG.info("Normalizers: {}", Normalizers.report());
+      try {
+        metrics.writeReport(new File(dwcaDir.getParentFile(), dwcaDir.getName() + "-report.json"));
+      } catch (IOException e) {
+        LOG.warn("Failed to write run report for {}", cfg.source, e);
+      }
     }
   }
 
+  /**
+   * Opens the archive writer used by parseData for a zip next to the given directory,
+   * also writing all files uncompressed into the directory.
+   * Public so benchmarks and tests can drive the parsing of builders without running them.
+   */
+  @VisibleForTesting
+  public DwcaWriter openWriter(File dir) throws IOException {
+    return openWriter(new File(dir.getParentFile(), dir.getName() + ".zip"), dir);
+  }
+
+  private DwcaWriter openWriter(File zip, @Nullable File dir) throws IOException {
+    writer = new ZipDwcaWriter(type == DatasetType.CHECKLIST ? DwcTerm.Taxon : DwcTerm.Occurrence, zip, dir, cfg.zipLevel, metrics);
+    return writer;
+  }
+
+  /**
+   * @return a reusable extension row bound to the current writer.
+   * Create it once per extension at the start of parseData, after the writer has been opened.
+   */
+  protected ExtensionRow extensionRow(Term rowType, Term... terms) {
+    return new ExtensionRow(writer, rowType, terms);
+  }
+
+  /**
+   * Override to declare the urls of all files the builder downloads in parseData.
+   * If the content of all of them is unchanged since the last successful build the build is skipped.
+   *
+   * @return the input urls or an empty list if they are unknown
+   */
+  protected List<String> inputUrls() throws Exception {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Hashes the code archives are built with, i.e. the jar or the classes directory including resources
+   * like the dataset descriptions, so any change to a builder, the shared utilities or a bundled
+   * dependency invalidates all fingerprints. It is computed once and shared by all builders.
+   */
+  private static synchronized HashCode codeHash() throws IOException, URISyntaxException {
+    if (codeHash == null) {
+      CodeSource src = AbstractBuilder.class.getProtectionDomain().getCodeSource();
+      if (src == null) {
+        throw new IOException("Unknown location of the builder code");
+      }
+      Path code = Paths.get(src.getLocation().toURI());
+      if (Files.isDirectory(code)) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(code)) {
+          files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path f : files) {
+          hasher.putString(code.relativize(f).toString(), StandardCharsets.UTF_8);
+          hasher.putBytes(MoreFiles.asByteSource(f).hash(Hashing.sha256()).asBytes());
+        }
+        codeHash = hasher.hash();
+      } else {
+        codeHash = MoreFiles.asByteSource(code).hash(Hashing.sha256());
+      }
+    }
+    return codeHash;
+  }
+
+  /**
+   * Fingerprints the builder code, its configuration and the content of all input files.
+   *
+   * @return the fingerprint or null if the inputs cannot be fingerprinted
+   */
+  private String fingerprint() {
+    try {
+      List<String> urls = inputUrls();
+      if (urls.isEmpty()) {
+        return null;
+      }
+      Hasher hasher = Hashing.sha256().newHasher();
+      hasher.putBytes(codeHash().asBytes());
+      hasher.putString(Strings.nullToEmpty(getClass().getPackage().getImplementationVersion()), StandardCharsets.UTF_8);
+      // all settings changing the archive, others like threads or buffer sizes only change how it is built
+      hasher.putString(cfg.source, StandardCharsets.UTF_8);
+      hasher.putInt(cfg.zipLevel);
+      for (String url : urls) {
+        String hash = http.contentHash(url);
+        if (hash == null) {
+          return null;
+        }
+        hasher.putString(url, StandardCharsets.UTF_8);
+        hasher.putString(hash, StandardCharsets.UTF_8);
+      }
+      return hasher.hash().toString();
+
+    } catch (Exception e) {
+      LOG.warn("Failed to fingerprint the inputs of {}", cfg.source, e);
+      return null;
+    }
+  }
+
+  /**
+   * Finds the latest release of the source by probing candidate urls concurrently.
+   * The release found is recorded in the release registry. Until it is older than the configured check interval
+   * it is only revalidated with a single conditional request, afterwards only newer candidates get probed.
+   *
+   * @param candidates release urls ordered from newest to oldest
+   * @return the newest existing release url or null if none exists
+   */
+  protected String findRelease(List<String> candidates) throws IOException {
+    ReleaseRegistry.Release last = releases == null ? null : releases.get(cfg.source);
+    int idx = last == null ? -1 : candidates.indexOf(last.url);
+    if (idx < 0) {
+      return recordRelease(http.probe(candidates));
+    }
+    if (last.checked.plus(cfg.releaseCheckHours, ChronoUnit.HOURS).isAfter(Instant.now())) {
+      ReleaseRegistry.Release current = revalidate(last);
+      if (current != null) {
+        LOG.info("Use release {} checked at {}", last.url, last.checked);
+        // keep the time newer releases were last probed
+        releases.put(cfg.source, new ReleaseRegistry.Release(current.url, current.etag, current.lastModified,
+            last.checked, current.getAttributes()));
+        return last.url;
+      }
+    }
+    String url = http.probe(candidates.subList(0, idx));
+    if (url == null) {
+      ReleaseRegistry.Release current = revalidate(last);
+      if (current != null) {
+        releases.put(cfg.source, current);
+        return current.url;
+      }
+      LOG.warn("Release {} does not exist anymore", last.url);
+      url = http.probe(candidates.subList(idx + 1, candidates.size()));
+    }
+    return recordRelease(url);
+  }
+
+  private String recordRelease(@Nullable String url) throws IOException {
+    if (url != null && releases != null) {
+      ReleaseRegistry.Release release = revalidate(new ReleaseRegistry.Release(url, null, null, Instant.now()));
+      if (release != null) {
+        releases.put(cfg.source, release);
+      }
+    }
+    return url;
+  }
+
+  /**
+   * Checks a known release with a conditional request.
+   * Its attributes are kept only if it did not change.
+   *
+   * @return the release checked now with current validators or null if it does not exist anymore
+   */
+  protected ReleaseRegistry.Release revalidate(ReleaseRegistry.Release release) {
+    try {
+      HttpResponse<Void> resp = http.revalidate(release.url, release.etag, release.lastModified);
+      if (resp.statusCode() == 304) {
+        return new ReleaseRegistry.Release(release.url, release.etag, release.lastModified, Instant.now(),
+            release.getAttributes());
+      } else if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
+        return new ReleaseRegistry.Release(release.url, HttpUtils.etag(resp), HttpUtils.lastModified(resp), Instant.now());
+      }
+    } catch (Exception e) {
+      LOG.debug("Failed to revalidate release {}", release.url, e);
+    }
+    return null;
+  }
+
   protected void writeMetadata() throws IOException {
     writer.setMetadata(toEml(), "eml.xml");
   }
@@ -99,6 +331,21 @@ public abstract class AbstractBuilder implements Runnable {
     return ExcelUtils.link(row, column);
   }
 
+  protected String col(XlsxReader.Row row, int column) {
+    return ExcelUtils.col(row, column);
+  }
+
+  protected String link(XlsxReader.Row row, int column) {
+    return ExcelUtils.link(row, column);
+  }
+
+  /**
+   * @return a reusable view decoding the given spreadsheet columns once per row
+   */
+  protected ExcelUtils.RowView rowView(int... columns) {
+    return ExcelUtils.view(columns);
+  }
+
   protected static String buildCitation(String author, String year, String title, String journal) {
     StringBuilder sb = new StringBuilder();
     sb.append(trimOrDefault(author, "???"));
@@ -0,0 +1,217 @@
+package de.doering.dwca;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.doering.dwca.utils.HttpUtils;
+import org.gbif.dwc.terms.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timers, counters and peak heap usage for the phases of a single checklist build.
+ * Exposed via JMX while the build runs and written as a JSON report at the end.
+ *
+ * Peak heap usage is read from the JVM wide memory pools. Their peaks are only reset at the start of a phase
+ * while no other build is running, so concurrent builds do not wipe each others values.
+ * The peak of a phase is therefore only its own in single source runs, with --parallel it is the peak of the
+ * whole JVM since some earlier point.
+ */
+public class BuildMetrics implements BuildMetricsMXBean {
+  private static final Logger LOG = LoggerFactory.getLogger(BuildMetrics.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+  // builds with a started but not yet finished phase in this JVM
+  private static final AtomicInteger RUNNING = new AtomicInteger();
+
+  private final String source;
+  private final HttpUtils http;
+  private final long started = System.currentTimeMillis();
+  private volatile long finished;
+  private boolean running;
+  private volatile String status = "RUNNING";
+  private volatile String phase;
+  private long phaseStarted;
+  private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+  private final Map<String, Long> phaseHeap = new LinkedHashMap<>();
+  private final AtomicLong coreRecords = new AtomicLong();
+  private final Map<Term, AtomicLong> extensionRecords = new ConcurrentHashMap<>();
+  private volatile long bytesWritten;
+  private volatile long archiveBytes;
+  private ObjectName name;
+
+  public BuildMetrics(String source, HttpUtils http) {
+    this.source = source;
+    this.http = http;
+  }
+
+  /**
+   * Ends the current phase, if any, and starts a new one.
+   */
+  public synchronized void phase(String name) {
+    endPhase();
+    phase = name;
+    phaseStarted = System.currentTimeMillis();
+    if (!running) {
+      running = true;
+      RUNNING.incrementAndGet();
+    }
+    // the peaks are shared by all builds of the JVM
+    if (RUNNING.get() == 1) {
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+          pool.resetPeakUsage();
+        }
+      }
+    }
+  }
+
+  private void endPhase() {
+    if (phase != null) {
+      phaseMillis.put(phase, System.currentTimeMillis() - phaseStarted);
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+          peak += pool.getPeakUsage().getUsed();
+        }
+      }
+      phaseHeap.put(phase, peak);
+      phase = null;
+    }
+  }
+
+  /**
+   * Ends the current phase and the entire build.
+   */
+  public synchronized void finish(String status) {
+    endPhase();
+    if (running) {
+      running = false;
+      RUNNING.decrementAndGet();
+    }
+    this.status = status;
+    finished = System.currentTimeMillis();
+  }
+
+  public void countCoreRecord() {
+    coreRecords.incrementAndGet();
+  }
+
+  public void countExtensionRecord(Term rowType) {
+    extensionRecords.computeIfAbsent(rowType, t -> new AtomicLong()).incrementAndGet();
+  }
+
+  public void setBytesWritten(long bytesWritten) {
+    this.bytesWritten = bytesWritten;
+  }
+
+  public void setArchiveBytes(long archiveBytes) {
+    this.archiveBytes = archiveBytes;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server using the source as the name.
+   */
+  public void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      name = new ObjectName(getClass().getPackage().getName() + ":type=BuildMetrics,source=" + ObjectName.quote(source));
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      LOG.warn("Failed to register JMX metrics for {}", source, e);
+      name = null;
+    }
+  }
+
+  public void unregister() {
+    if (name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (JMException e) {
+        LOG.debug("Failed to unregister JMX metrics for {}", source, e);
+      }
+    }
+  }
+
+  public void writeReport(File file) throws IOException {
+    MAPPER.writeValue(file, this);
+  }
+
+  @Override
+  public String getSource() {
+    return source;
+  }
+
+  @Override
+  public String getStatus() {
+    return status;
+  }
+
+  @Override
+  public String getPhase() {
+    return phase;
+  }
+
+  @Override
+  public String getStarted() {
+    return Instant.ofEpochMilli(started).toString();
+  }
+
+  @Override
+  public long getTotalMillis() {
+    return (finished > 0 ? finished : System.currentTimeMillis()) - started;
+  }
+
+  @Override
+  public synchronized Map<String, Long> getPhaseMillis() {
+    return new LinkedHashMap<>(phaseMillis);
+  }
+
+  @Override
+  public synchronized Map<String, Long> getPhasePeakHeap() {
+    return new LinkedHashMap<>(phaseHeap);
+  }
+
+  @Override
+  public long getCoreRecords() {
+    return coreRecords.get();
+  }
+
+  @Override
+  public Map<String, Long> getExtensionRecords() {
+    Map<String, Long> counts = new TreeMap<>();
+    extensionRecords.forEach((t, cnt) -> counts.put(t.simpleName(), cnt.get()));
+    return counts;
+  }
+
+  @Override
+  public long getBytesDownloaded() {
+    return http.getBytesDownloaded();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public long getArchiveBytes() {
+    return archiveBytes;
+  }
+}
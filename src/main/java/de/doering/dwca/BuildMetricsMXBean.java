@@ -0,0 +1,49 @@
+package de.doering.dwca;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a running checklist build.
+ */
+public interface BuildMetricsMXBean {
+
+  String getSource();
+
+  /**
+   * @return RUNNING, SKIPPED, COMPLETED or FAILED
+   */
+  String getStatus();
+
+  /**
+   * @return the phase currently running or null if none is
+   */
+  String getPhase();
+
+  String getStarted();
+
+  long getTotalMillis();
+
+  Map<String, Long> getPhaseMillis();
+
+  /**
+   * @return the peak heap used during each phase in bytes.
+   * Only exact for single source runs, concurrent builds in the same JVM report the JVM wide peak.
+   */
+  Map<String, Long> getPhasePeakHeap();
+
+  long getCoreRecords();
+
+  Map<String, Long> getExtensionRecords();
+
+  long getBytesDownloaded();
+
+  /**
+   * @return the size of all uncompressed archive files
+   */
+  long getBytesWritten();
+
+  /**
+   * @return the size of the zipped archive
+   */
+  long getArchiveBytes();
+}
@@ -1,13 +1,24 @@
 package de.doering.dwca;
 
 import com.beust.jcommander.JCommander;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Checklist build command
+ * Checklist build command.
+ * Several comma separated sources can be given in which case their builders are run concurrently,
+ * each with its own archive directory, and a summary is logged at the end.
  */
 public class BuilderCli {
     private static final Logger LOG = LoggerFactory.getLogger(BuilderCli.class);
@@ -16,6 +27,15 @@ public class BuilderCli {
         BuilderConfig cfg = new BuilderConfig();
         new JCommander(cfg, args);
 
+        List<String> sources = cfg.sources();
+        if (sources.size() == 1) {
+            build(cfg.forSource(sources.get(0)));
+        } else {
+            buildAll(cfg, sources);
+        }
+    }
+
+    private static void build(BuilderConfig cfg) throws Exception {
         LOG.info("Building {} checklist", cfg.source);
         Class<? extends AbstractBuilder> abClass = cfg.builderClass();
         Constructor<? extends AbstractBuilder> cons = abClass.getConstructor(BuilderConfig.class);
@@ -24,4 +44,66 @@ public class BuilderCli {
         LOG.info("{} checklist completed", cfg.source);
     }
 
+    /**
+     * Runs the builders for all sources with at most cfg.parallel of them at the same time.
+     * The running builders split cfg.threads and the download segments evenly.
+     * A failing source does not affect the others.
+     */
+    private static void buildAll(BuilderConfig cfg, List<String> sources) throws InterruptedException {
+        LOG.info("Building {} checklists with a parallelism of {}", sources.size(), cfg.parallel);
+        final int parallel = Math.max(1, Math.min(cfg.parallel, sources.size()));
+        ExecutorService exec = Executors.newFixedThreadPool(parallel);
+        List<Future<SourceResult>> futures = Lists.newArrayList();
+        for (String source : sources) {
+            final BuilderConfig sourceCfg = cfg.forSource(source, parallel);
+            futures.add(exec.submit(() -> {
+                SourceResult result = new SourceResult(sourceCfg.source);
+                Stopwatch watch = Stopwatch.createStarted();
+                try {
+                    build(sourceCfg);
+                } catch (Throwable e) {
+                    LOG.error("Failed to build {} checklist", sourceCfg.source, e);
+                    result.error = Throwables.getRootCause(e).toString();
+                }
+                result.millis = watch.elapsed(TimeUnit.MILLISECONDS);
+                return result;
+            }));
+        }
+        exec.shutdown();
+
+        int failed = 0;
+        LOG.info("Summary of {} checklist builds:", sources.size());
+        for (Future<SourceResult> f : futures) {
+            SourceResult result;
+            try {
+                result = f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            if (result.error == null) {
+                LOG.info("  {}: OK in {}", result.source, duration(result.millis));
+            } else {
+                failed++;
+                LOG.info("  {}: FAILED after {} - {}", result.source, duration(result.millis), result.error);
+            }
+        }
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + sources.size() + " checklist builds failed");
+        }
+    }
+
+    private static String duration(long millis) {
+        long secs = millis / 1000;
+        return String.format("%d:%02d:%02d", secs / 3600, (secs % 3600) / 60, secs % 60);
+    }
+
+    private static class SourceResult {
+        final String source;
+        long millis;
+        String error;
+
+        SourceResult(String source) {
+            this.source = source;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package de.doering.dwca;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
@@ -13,22 +14,90 @@ import java.util.List;
 /**
  *
  */
-public class BuilderConfig {
+public class BuilderConfig implements Cloneable {
 
   @Parameter(names = {"-r", "--repository"})
   @NotNull
   public File repository;
 
+  /**
+   * One or more comma separated sources to build
+   */
   @Parameter(names = {"-s", "--source"}, required = true)
   @NotNull
   public String source;
 
+  /**
+   * Maximum number of sources being build at the same time
+   */
+  @Parameter(names = {"--parallel"})
+  @Min(1)
+  public int parallel = 2;
+
   @Parameter(names = {"--timeout"})
   public int timeout = 600;
 
+  /**
+   * Number of worker threads, shared by all sources being build at the same time
+   */
   @Parameter(names = {"--threads"})
   public int threads = 4;
 
+  /**
+   * Zip compression level from 1-9, -1 for the default or 0 to store entries uncompressed
+   */
+  @Parameter(names = {"--zip-level"})
+  @Min(-1)
+  @Max(9)
+  public int zipLevel = -1;
+
+  /**
+   * Keep the uncompressed archive directory next to the zip file
+   */
+  @Parameter(names = {"--keep-dir"})
+  public boolean keepDir = false;
+
+  /**
+   * Do not use the persistent download cache in the repository
+   */
+  @Parameter(names = {"--no-cache"})
+  public boolean noCache = false;
+
+  /**
+   * Days a download cache entry is kept without being used before it gets evicted
+   */
+  @Parameter(names = {"--cache-max-age-days"})
+  @Min(1)
+  public int cacheMaxAgeDays = 30;
+
+  /**
+   * Rebuild the archive even if all inputs are unchanged since the last build
+   */
+  @Parameter(names = {"--force"})
+  public boolean force = false;
+
+  /**
+   * Maximum number of concurrent byte ranges to download large files in, shared like threads
+   */
+  @Parameter(names = {"--download-segments"})
+  @Min(1)
+  public int downloadSegments = 4;
+
+  /**
+   * Memory in MB all tables being sorted, or held sorted in memory until they are converted, may use together.
+   * It is split evenly between the tables of all downloads, larger tables spill sorted runs to disk.
+   */
+  @Parameter(names = {"--sort-buffer"})
+  @Min(1)
+  public int sortBufferMb = 64;
+
+  /**
+   * Hours a release found for a source is trusted before newer releases are probed again, 0 to always probe
+   */
+  @Parameter(names = {"--release-check-hours"})
+  @Min(0)
+  public int releaseCheckHours = 24;
+
   @Parameter(names = {"--flickr-key"})
   public String flickrKey = "59c1f626e17ddc0e37160b56d7b21ea3";
 
@@ -43,6 +112,36 @@ public class BuilderConfig {
   @Min(10)
   public int flickrPageSize = 500;
 
+  /**
+   * @return the list of individual sources given
+   */
+  public List<String> sources() {
+    return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(source);
+  }
+
+  /**
+   * @return a copy of this configuration for a single source
+   */
+  public BuilderConfig forSource(String source) {
+    return forSource(source, 1);
+  }
+
+  /**
+   * @param concurrent number of sources being build at the same time which split the threads and download segments
+   * @return a copy of this configuration for a single source
+   */
+  public BuilderConfig forSource(String source, int concurrent) {
+    try {
+      BuilderConfig cfg = (BuilderConfig) clone();
+      cfg.source = source;
+      cfg.threads = Math.max(1, threads / concurrent);
+      cfg.downloadSegments = Math.max(1, downloadSegments / concurrent);
+      return cfg;
+    } catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Returns the directory with the decompressed archive folder created by the checklist builder
    */
@@ -50,6 +149,21 @@ public class BuilderConfig {
     return new File(repository, source);
   }
 
+  /**
+   * Returns the directory for persistent caches shared by all sources or null if caching is disabled
+   */
+  public File cacheDir() {
+    return noCache || repository == null ? null : new File(repository, ".cache");
+  }
+
+  /**
+   * Returns the directory of the persistent download cache or null if caching is disabled
+   */
+  public File downloadCacheDir() {
+    File dir = cacheDir();
+    return dir == null ? null : new File(dir, "downloads");
+  }
+
   public Class<? extends AbstractBuilder> builderClass() {
     try {
       String classname = BuilderConfig.class.getPackage().getName() + "." + source.toLowerCase() + ".ArchiveBuilder";
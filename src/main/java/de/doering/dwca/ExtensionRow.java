@@ -0,0 +1,190 @@
+package de.doering.dwca;
+
+import com.google.common.collect.ImmutableSet;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.terms.Term;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A reusable extension record bound to a fixed list of terms.
+ * Create one per extension before writing records and fill it for every row instead of allocating a new map.
+ * Values are kept in slots resolved from the terms given at construction and cleared after each write.
+ *
+ * The archive writer of the builders copies the values of each write straight into its row buffer.
+ * Any other DwcaWriter keeps extension records until the next core record starts, so it is handed a read only
+ * snapshot of the current values sharing the terms of this row, which costs a copy and a map per write.
+ * As all terms are always present the column layout of the extension is fixed by the first row.
+ */
+public class ExtensionRow extends AbstractMap<Term, String> {
+  private final DwcaWriter writer;
+  private final Term rowType;
+  private final Term[] terms;
+  private final String[] values;
+  private final Set<Term> keys;
+  private final Set<Entry<Term, String>> entries;
+
+  public ExtensionRow(DwcaWriter writer, Term rowType, Term... terms) {
+    this.writer = writer;
+    this.rowType = rowType;
+    this.terms = terms.clone();
+    this.values = new String[terms.length];
+    this.entries = new Entries(values);
+    this.keys = ImmutableSet.copyOf(terms);
+    if (keys.size() != terms.length) {
+      throw new IllegalArgumentException("Duplicate terms for extension " + rowType);
+    }
+  }
+
+  /**
+   * @return the slot of the term, to be used with set(int, String) in tight loops
+   * @throws IllegalArgumentException if the term is not part of this row
+   */
+  public int slot(Term term) {
+    int idx = indexOf(term);
+    if (idx < 0) {
+      throw new IllegalArgumentException("Term " + term + " is not part of extension " + rowType);
+    }
+    return idx;
+  }
+
+  private int indexOf(Object term) {
+    for (int i = 0; i < terms.length; i++) {
+      if (terms[i].equals(term)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public ExtensionRow set(Term term, String value) {
+    values[slot(term)] = value;
+    return this;
+  }
+
+  public ExtensionRow set(int slot, String value) {
+    values[slot] = value;
+    return this;
+  }
+
+  /**
+   * Adds the current values as a new extension record of the current core record and clears all slots.
+   */
+  public void write() throws IOException {
+    try {
+      if (writer instanceof ZipDwcaWriter) {
+        ((ZipDwcaWriter) writer).addExtensionRecord(rowType, terms, values);
+      } else {
+        writer.addExtensionRecord(rowType, new Snapshot(values.clone()));
+      }
+    } finally {
+      Arrays.fill(values, null);
+    }
+  }
+
+  @Override
+  public String get(Object key) {
+    int idx = indexOf(key);
+    return idx < 0 ? null : values[idx];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return terms.length;
+  }
+
+  @Override
+  public Set<Term> keySet() {
+    return keys;
+  }
+
+  @Override
+  public Set<Entry<Term, String>> entrySet() {
+    return entries;
+  }
+
+  /**
+   * An immutable copy of the values of a written row.
+   */
+  private class Snapshot extends AbstractMap<Term, String> {
+    private final String[] values;
+    private final Set<Entry<Term, String>> entries;
+
+    Snapshot(String[] values) {
+      this.values = values;
+      entries = new Entries(values);
+    }
+
+    @Override
+    public String get(Object key) {
+      int idx = indexOf(key);
+      return idx < 0 ? null : values[idx];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return terms.length;
+    }
+
+    @Override
+    public Set<Term> keySet() {
+      return keys;
+    }
+
+    @Override
+    public Set<Entry<Term, String>> entrySet() {
+      return entries;
+    }
+  }
+
+  private class Entries extends AbstractSet<Entry<Term, String>> {
+    private final String[] values;
+
+    Entries(String[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Iterator<Entry<Term, String>> iterator() {
+      return new Iterator<Entry<Term, String>>() {
+        private int idx;
+
+        @Override
+        public boolean hasNext() {
+          return idx < terms.length;
+        }
+
+        @Override
+        public Entry<Term, String> next() {
+          if (idx >= terms.length) {
+            throw new NoSuchElementException();
+          }
+          Entry<Term, String> e = new SimpleImmutableEntry<>(terms[idx], values[idx]);
+          idx++;
+          return e;
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return terms.length;
+    }
+  }
+}
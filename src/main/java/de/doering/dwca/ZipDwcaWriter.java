@@ -0,0 +1,467 @@
+package de.doering.dwca;
+
+import com.google.common.io.CountingOutputStream;
+import de.doering.dwca.utils.ZipUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.terms.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A DwcaWriter that writes the archive straight into a zip instead of a directory that is zipped afterwards.
+ * The core data file is compressed into the zip while its records are added.
+ * Extension files are compressed into spool files as they are written and copied into the zip without
+ * recompression on close, followed by meta.xml and the metadata document.
+ * Optionally all files are also written uncompressed into a directory.
+ * Data files follow the layout of DwcaWriter: tab delimited without headers, the id first and further columns
+ * in the order their terms were first used.
+ * Counts core and extension records in the build metrics.
+ */
+class ZipDwcaWriter extends DwcaWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(ZipDwcaWriter.class);
+  private static final Pattern ESCAPE = Pattern.compile("[\t\n\r]");
+  private static final String META = "meta.xml";
+  private static final String NS = "http://rs.tdwg.org/dwc/text/";
+
+  private final File zip;
+  private final File part;
+  private final File scratch;
+  @Nullable
+  private final File dir;
+  private final int level;
+  private final BuildMetrics metrics;
+  private final long time = System.currentTimeMillis();
+  private final ZipArchiveOutputStream out;
+  private final DataFile core;
+  private final Map<Term, DataFile> extensions = new LinkedHashMap<>();
+  private final Map<Term, Map<Term, String>> defaults = new HashMap<>();
+  private final Map<Term, String> delimiters = new HashMap<>();
+  private long metaBytes;
+  private String coreId;
+  private byte[] metadata;
+  private String metadataName;
+  private boolean closed;
+
+  /**
+   * @param zip the archive to write, only replaced once the writer is closed successfully
+   * @param dir optional directory to also write all files into uncompressed
+   * @param level compression level from 1-9, -1 for the deflater default or 0 to store only
+   */
+  ZipDwcaWriter(Term coreRowType, File zip, @Nullable File dir, int level, BuildMetrics metrics) throws IOException {
+    // DwcaWriter opens its own, unused core file in the scratch directory
+    super(coreRowType, scratch(zip), false);
+    this.zip = zip;
+    this.part = new File(zip.getParentFile(), zip.getName() + ".part");
+    this.scratch = scratch(zip);
+    this.dir = dir;
+    this.level = level;
+    this.metrics = metrics;
+    if (dir != null) {
+      FileUtils.forceMkdir(dir);
+    }
+    out = new ZipArchiveOutputStream(part);
+    out.setLevel(level == ZipUtils.STORE ? Deflater.DEFAULT_COMPRESSION : level);
+    out.putArchiveEntry(ZipUtils.entry(fileName(coreRowType), time, level));
+    core = new DataFile(coreRowType, CloseShieldOutputStream.wrap(out));
+  }
+
+  private static File scratch(File zip) {
+    return new File(zip.getParentFile(), zip.getName() + ".tmp");
+  }
+
+  private static String fileName(Term rowType) {
+    return rowType.simpleName().toLowerCase() + ".txt";
+  }
+
+  @Override
+  public void newRecord(String id) throws IOException {
+    flushCore();
+    coreId = id;
+    metrics.countCoreRecord();
+  }
+
+  private void flushCore() throws IOException {
+    if (coreId != null) {
+      core.row[0] = coreId;
+      core.write();
+    }
+  }
+
+  @Override
+  public void addCoreColumn(Term term, String value) {
+    if (coreId == null) {
+      throw new IllegalStateException("No core record has been created yet. Call newRecord() at least once");
+    }
+    core.row[core.column(term)] = value;
+  }
+
+  @Override
+  public void addCoreColumn(Term term, @Nullable Enum value) {
+    addCoreColumn(term, value == null ? null : value.name().toLowerCase().replaceAll("_", " "));
+  }
+
+  @Override
+  public void addCoreColumn(Term term, @Nullable Object value) {
+    addCoreColumn(term, value == null ? null : value.toString());
+  }
+
+  @Override
+  public void addExtensionRecord(Term rowType, Map<Term, String> row) throws IOException {
+    DataFile ext = extension(rowType);
+    if (ext != null) {
+      for (Map.Entry<Term, String> e : row.entrySet()) {
+        ext.row[ext.column(e.getKey())] = e.getValue();
+      }
+      write(ext);
+    }
+  }
+
+  /**
+   * Writes an extension record given as terms and their values, copying the values straight into the row buffer
+   * of the data file instead of going through a map.
+   */
+  void addExtensionRecord(Term rowType, Term[] terms, String[] values) throws IOException {
+    DataFile ext = extension(rowType);
+    if (ext != null) {
+      for (int i = 0; i < terms.length; i++) {
+        ext.row[ext.column(terms[i])] = values[i];
+      }
+      write(ext);
+    }
+  }
+
+  private void write(DataFile ext) throws IOException {
+    ext.row[0] = coreId;
+    ext.write();
+    metrics.countExtensionRecord(ext.rowType);
+  }
+
+  /**
+   * @return the data file of the extension or null if there is no core record to attach records to yet
+   */
+  private DataFile extension(Term rowType) throws IOException {
+    if (coreId == null) {
+      LOG.warn("Ignore {} extension record without a core record", rowType.simpleName());
+      return null;
+    }
+    DataFile ext = extensions.get(rowType);
+    if (ext == null) {
+      ext = new DataFile(rowType, new File(scratch, fileName(rowType) + ".deflated"));
+      extensions.put(rowType, ext);
+    }
+    return ext;
+  }
+
+  @Override
+  public void addDefaultValue(Term rowType, Term term, String value) {
+    Map<Term, String> values = defaults.computeIfAbsent(rowType, t -> new LinkedHashMap<>());
+    if (values.containsKey(term)) {
+      throw new IllegalStateException("The default value of term " + term + " is already defined");
+    }
+    values.put(term, value);
+  }
+
+  @Override
+  public void addCoreMultiValueDelimiter(Term term, String delimiter) {
+    delimiters.put(term, delimiter);
+  }
+
+  @Override
+  public void setMetadata(InputStream metadata, String fileName) throws IOException {
+    this.metadata = IOUtils.toByteArray(metadata);
+    this.metadataName = fileName;
+  }
+
+  /**
+   * Finishes all data files and writes meta.xml and the metadata into the zip.
+   * The previous archive is only replaced once the new one is complete.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      flushCore();
+      core.close();
+      out.closeArchiveEntry();
+      for (DataFile ext : extensions.values()) {
+        ext.close();
+        ZipArchiveEntry entry = ZipUtils.entry(ext.name, time, level);
+        entry.setCrc(ext.crc.getValue());
+        entry.setSize(ext.size.getCount());
+        entry.setCompressedSize(ext.spool.length());
+        try (InputStream in = new BufferedInputStream(new FileInputStream(ext.spool))) {
+          out.addRawArchiveEntry(entry, in);
+        }
+      }
+      writeEntry(META, meta());
+      if (metadata != null) {
+        writeEntry(metadataName, metadata);
+      }
+      out.close();
+      Files.move(part.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      abort();
+      throw e;
+    }
+    deleteScratch();
+  }
+
+  /**
+   * Discards the partial archive after a failed build. Any previous archive is left untouched.
+   */
+  void abort() {
+    closed = true;
+    IOUtils.closeQuietly(core);
+    for (DataFile ext : extensions.values()) {
+      IOUtils.closeQuietly(ext);
+    }
+    IOUtils.closeQuietly(out);
+    FileUtils.deleteQuietly(part);
+    deleteScratch();
+  }
+
+  private void deleteScratch() {
+    try {
+      super.close();
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to close the unused DwcaWriter in {}", scratch, e);
+    }
+    FileUtils.deleteQuietly(scratch);
+  }
+
+  /**
+   * @return the size of all uncompressed files in the archive
+   */
+  long getUncompressedBytes() {
+    long bytes = core.size.getCount() + metaBytes;
+    for (DataFile ext : extensions.values()) {
+      bytes += ext.size.getCount();
+    }
+    return bytes;
+  }
+
+  private void writeEntry(String name, byte[] data) throws IOException {
+    out.putArchiveEntry(ZipUtils.entry(name, time, level));
+    out.write(data);
+    out.closeArchiveEntry();
+    if (dir != null) {
+      FileUtils.writeByteArrayToFile(new File(dir, name), data);
+    }
+    metaBytes += data.length;
+  }
+
+  private byte[] meta() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(bytes, "UTF-8");
+      xml.writeStartDocument("UTF-8", "1.0");
+      xml.writeStartElement("archive");
+      xml.writeDefaultNamespace(NS);
+      if (metadata != null) {
+        xml.writeAttribute("metadata", metadataName);
+      }
+      meta(xml, "core", "id", core);
+      for (DataFile ext : extensions.values()) {
+        meta(xml, "extension", "coreid", ext);
+      }
+      xml.writeEndElement();
+      xml.writeEndDocument();
+      xml.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Failed to write " + META, e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void meta(XMLStreamWriter xml, String element, String idElement, DataFile file) throws XMLStreamException {
+    Map<Term, String> values = defaults.getOrDefault(file.rowType, Map.of());
+    xml.writeStartElement(element);
+    xml.writeAttribute("encoding", "UTF-8");
+    xml.writeAttribute("fieldsTerminatedBy", "\\t");
+    xml.writeAttribute("linesTerminatedBy", "\\n");
+    xml.writeAttribute("fieldsEnclosedBy", "");
+    xml.writeAttribute("ignoreHeaderLines", "0");
+    xml.writeAttribute("rowType", file.rowType.qualifiedName());
+    xml.writeStartElement("files");
+    xml.writeStartElement("location");
+    xml.writeCharacters(file.name);
+    xml.writeEndElement();
+    xml.writeEndElement();
+    xml.writeEmptyElement(idElement);
+    xml.writeAttribute("index", "0");
+    for (int i = 0; i < file.terms.size(); i++) {
+      Term term = file.terms.get(i);
+      xml.writeEmptyElement("field");
+      xml.writeAttribute("index", String.valueOf(i + 1));
+      xml.writeAttribute("term", term.qualifiedName());
+      if (values.containsKey(term)) {
+        xml.writeAttribute("default", values.get(term));
+      }
+      if (file == core && delimiters.containsKey(term)) {
+        xml.writeAttribute("delimitedBy", delimiters.get(term));
+      }
+    }
+    // constant values without a column
+    for (Map.Entry<Term, String> e : values.entrySet()) {
+      if (!file.columns.containsKey(e.getKey())) {
+        xml.writeEmptyElement("field");
+        xml.writeAttribute("term", e.getKey().qualifiedName());
+        xml.writeAttribute("default", e.getValue());
+      }
+    }
+    xml.writeEndElement();
+  }
+
+  /**
+   * A tab delimited data file with a reusable row buffer, the id at index 0.
+   */
+  private class DataFile implements Closeable {
+    final Term rowType;
+    final String name;
+    final List<Term> terms = new ArrayList<>();
+    final Map<Term, Integer> columns = new HashMap<>();
+    final CountingOutputStream size;
+    final CRC32 crc = new CRC32();
+    final Writer writer;
+    File spool;
+    Deflater deflater;
+    String[] row = new String[16];
+
+    /**
+     * A data file written into an open zip entry.
+     */
+    DataFile(Term rowType, OutputStream entry) throws IOException {
+      this.rowType = rowType;
+      this.name = fileName(rowType);
+      size = new CountingOutputStream(tee(entry));
+      writer = writer(size);
+    }
+
+    /**
+     * A data file compressed into a spool file, ready to be copied into the zip as it is.
+     */
+    DataFile(Term rowType, File spool) throws IOException {
+      this.rowType = rowType;
+      this.name = fileName(rowType);
+      this.spool = spool;
+      FileUtils.forceMkdirParent(spool);
+      OutputStream compressed = new BufferedOutputStream(new FileOutputStream(spool));
+      if (level != ZipUtils.STORE) {
+        deflater = new Deflater(level, true);
+        compressed = new DeflaterOutputStream(compressed, deflater, 64 * 1024);
+      }
+      size = new CountingOutputStream(tee(new CheckedOutputStream(compressed, crc)));
+      writer = writer(size);
+    }
+
+    /**
+     * Buffers chars, so single values are copied into the buffer instead of being wrapped for the encoder.
+     */
+    private Writer writer(OutputStream out) {
+      return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private OutputStream tee(OutputStream out) throws IOException {
+      if (dir == null) {
+        return out;
+      }
+      return new TeeOutputStream(out, new FileOutputStream(new File(dir, name)));
+    }
+
+    int column(Term term) {
+      Integer idx = columns.get(term);
+      if (idx == null) {
+        terms.add(term);
+        idx = terms.size();
+        columns.put(term, idx);
+        if (idx >= row.length) {
+          row = Arrays.copyOf(row, row.length * 2);
+        }
+      }
+      return idx;
+    }
+
+    /**
+     * Writes the current row and clears it, skipping empty rows like DwcaWriter does.
+     */
+    void write() throws IOException {
+      int length = terms.size() + 1;
+      boolean empty = true;
+      for (int i = 0; i < length; i++) {
+        String val = row[i];
+        if (val != null) {
+          if (val.indexOf('\t') >= 0 || val.indexOf('\n') >= 0 || val.indexOf('\r') >= 0) {
+            val = ESCAPE.matcher(val).replaceAll(" ");
+          }
+          row[i] = val = StringUtils.trimToNull(val);
+          empty &= val == null;
+        }
+      }
+      if (!empty) {
+        for (int i = 0; i < length; i++) {
+          if (i > 0) {
+            writer.write('\t');
+          }
+          if (row[i] != null) {
+            writer.write(row[i]);
+          }
+        }
+        writer.write('\n');
+      }
+      Arrays.fill(row, 0, length, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        writer.close();
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+    }
+  }
+}
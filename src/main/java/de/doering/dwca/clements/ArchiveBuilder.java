@@ -16,38 +16,44 @@
 package de.doering.dwca.clements;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Strings;
 import de.doering.dwca.AbstractBuilder;
 import de.doering.dwca.BuilderConfig;
+import de.doering.dwca.ExtensionRow;
+import de.doering.dwca.utils.ExcelUtils;
+import de.doering.dwca.utils.Normalizer;
+import de.doering.dwca.utils.Normalizers;
+import de.doering.dwca.utils.XlsxReader;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.gbif.api.model.registry.Citation;
 import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.GbifTerm;
-import org.gbif.dwc.terms.Term;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.text.DateFormatSymbols;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ArchiveBuilder extends AbstractBuilder {
 
-    private Pattern cleanFamily = Pattern.compile("^([^ ,(]+)");
+    private static final Pattern CLEAN_FAMILY = Pattern.compile("^([^ ,(]+)");
+    private static final Normalizer<String> FAMILY = Normalizers.register("clements family", f -> {
+        Matcher m = CLEAN_FAMILY.matcher(f);
+        return m.find() ? m.group() : null;
+    });
     private static final String DOWNLOAD = "https://www.birds.cornell.edu/clementschecklist/wp-content/uploads/{YEAR}/{MONTH}/Clements-Checklist-v{YEAR}-{MONTH_NAME}-{YEAR}.xlsx";
     // metadata
     private static final String TITLE = "The Clements Checklist";
@@ -80,23 +86,39 @@ public class ArchiveBuilder extends AbstractBuilder {
     private static final int COL_REF_TITLE = 4;
     private static final int COL_REF_JOURNAL = 5;
 
+    private LocalDate release;
+
     public ArchiveBuilder(BuilderConfig cfg) {
         super(DatasetType.CHECKLIST, cfg);
     }
 
-    private LocalDate findLastPublication(){
+    @Override
+    protected List<String> inputUrls() throws IOException {
+        return List.of(url(release()));
+    }
+
+    private LocalDate release() throws IOException {
+        if (release == null) {
+            release = findLastPublication();
+        }
+        return release;
+    }
+
+    private LocalDate findLastPublication() throws IOException {
         // recently these have been published annually in august only, but there have been different month before
         // try and find a list for each month going backwards until we hit sth
+        Map<String, LocalDate> candidates = new LinkedHashMap<>();
         LocalDate today = LocalDate.now();
         for (int i=0; i<=24; i++) {
             LocalDate date = today.minus(i, ChronoUnit.MONTHS);
-            String url = url(date);
-            LOG.info("Try release on {} at {}", date, url);
-            if (http.exists(url)) {
-                return date;
-            }
+            candidates.put(url(date), date);
+        }
+        LOG.info("Probe {} monthly releases since {}", candidates.size(), today.minus(24, ChronoUnit.MONTHS));
+        String url = findRelease(new ArrayList<>(candidates.keySet()));
+        if (url == null) {
+            throw new IllegalStateException("Unable to find any publication since 2 years");
         }
-        throw new IllegalStateException("Unable to find any publication since 2 years");
+        return candidates.get(url);
     }
 
     @VisibleForTesting
@@ -116,81 +138,107 @@ public class ArchiveBuilder extends AbstractBuilder {
     @Override
     protected void parseData() throws Exception {
         // find latest clements list
-        LocalDate date = findLastPublication();
+        LocalDate date = release();
         dataset.setPubDate(Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant()));
         // get latest CSV
         String url = url(date);
         // download excel
         LOG.info("Downloading latest data from {}", url);
-        InputStream in = http.getStream(url);
-        if (in == null) {
-            throw new IllegalStateException("Unable to download Clements XLS from " + url);
+        File xlsx = File.createTempFile("clements", ".xlsx");
+        try {
+            http.download(url, xlsx);
+            parseWorkbook(xlsx);
+        } finally {
+            FileUtils.deleteQuietly(xlsx);
+        }
+    }
+
+    /**
+     * Converts the taxa sheet into records and adds the references sheet to the EML bibliography.
+     */
+    @VisibleForTesting
+    void parseWorkbook(File xlsx) throws Exception {
+        try (XlsxReader wb = XlsxReader.open(xlsx)) {
+            parseTaxa(wb);
+            parseReferences(wb);
         }
-        Workbook wb = WorkbookFactory.create(in);
-        Sheet taxa = wb.getSheetAt(0);
-        LOG.info("{} taxa found in excel sheet", taxa.getPhysicalNumberOfRows());
+    }
+
+    private void parseTaxa(XlsxReader wb) throws Exception {
+        ExtensionRow vernacular = extensionRow(GbifTerm.VernacularName, DwcTerm.vernacularName, DcTerm.language);
+        ExtensionRow description = extensionRow(GbifTerm.Description, DcTerm.description, DcTerm.type);
+        ExtensionRow profile = extensionRow(GbifTerm.SpeciesProfile, GbifTerm.isExtinct, GbifTerm.livingPeriod);
 
+        ExcelUtils.RowView r = rowView(COL_ID, COL_REMARKS, COL_RANK, COL_EN_NAME, COL_NAME, COL_RANGE, COL_ORDER,
+            COL_FAMILY, COL_EXTINCT, COL_EXTINCT_YEAR);
         // parse rows
-        Iterator<Row> iter = taxa.rowIterator();
-        while (iter.hasNext()) {
-            Row row = iter.next();
-            String id = col(row, COL_ID);
-            if (StringUtils.isBlank(id)) {
-                LOG.warn("Suspicous row with empty id, ignore line {}", row.getRowNum());
-                continue;
-            }
-            writer.newRecord(id);
-            writer.addCoreColumn(DwcTerm.scientificName, col(row, COL_NAME));
-            writer.addCoreColumn(DwcTerm.taxonRank, col(row, COL_RANK));
-            writer.addCoreColumn(DwcTerm.kingdom, "Animalia");
-            writer.addCoreColumn(DwcTerm.class_, "Aves");
-            writer.addCoreColumn(DwcTerm.order, col(row, COL_ORDER));
-            if (!Strings.isNullOrEmpty(col(row, COL_FAMILY))) {
-                Matcher m = cleanFamily.matcher(col(row, COL_FAMILY));
-                if (m.find()) {
-                    writer.addCoreColumn(DwcTerm.family, m.group());
+        int counter = 0;
+        try (XlsxReader.Sheet taxa = wb.sheet(0, false)) {
+            while (taxa.hasNext()) {
+                r.read(taxa.next());
+                String id = r.get(COL_ID);
+                if (StringUtils.isBlank(id)) {
+                    LOG.warn("Suspicous row with empty id, ignore line {}", r.getRowNum());
+                    continue;
                 }
+                writer.newRecord(id);
+                writer.addCoreColumn(DwcTerm.scientificName, r.get(COL_NAME));
+                writer.addCoreColumn(DwcTerm.taxonRank, r.get(COL_RANK));
+                writer.addCoreColumn(DwcTerm.kingdom, "Animalia");
+                writer.addCoreColumn(DwcTerm.class_, "Aves");
+                writer.addCoreColumn(DwcTerm.order, r.get(COL_ORDER));
+                String family = FAMILY.normalize(r.get(COL_FAMILY));
+                if (family != null) {
+                    writer.addCoreColumn(DwcTerm.family, family);
+                }
+                writer.addCoreColumn(DwcTerm.taxonRemarks, r.get(COL_REMARKS));
+
+                vernacular.set(DwcTerm.vernacularName, r.get(COL_EN_NAME));
+                vernacular.set(DcTerm.language, "en");
+                vernacular.write();
+
+                description.set(DcTerm.description, r.get(COL_RANGE));
+                description.set(DcTerm.type, "Distribution");
+                description.write();
+
+                // extinct
+                profile.set(GbifTerm.isExtinct, "1".equalsIgnoreCase(r.get(COL_EXTINCT)) ? "true" : "false");
+                if (!r.isEmpty(COL_EXTINCT_YEAR)) {
+                    profile.set(GbifTerm.livingPeriod, "Recent until " + r.get(COL_EXTINCT_YEAR));
+                }
+                profile.write();
+                counter++;
             }
-            writer.addCoreColumn(DwcTerm.taxonRemarks, col(row, COL_REMARKS));
-
-            Map<Term, String> data = new HashMap<Term, String>();
-            data.put(DwcTerm.vernacularName, col(row, COL_EN_NAME));
-            data.put(DcTerm.language, "en");
-            writer.addExtensionRecord(GbifTerm.VernacularName, data);
-
-            data = new HashMap<Term, String>();
-            data.put(DcTerm.description, col(row, COL_RANGE));
-            data.put(DcTerm.type, "Distribution");
-            writer.addExtensionRecord(GbifTerm.Description, data);
-
-            // extinct
-            data = new HashMap<Term, String>();
-            data.put(GbifTerm.isExtinct, "1".equalsIgnoreCase(Strings.nullToEmpty(col(row, COL_EXTINCT))) ? "true" : "false");
-            if (!Strings.isNullOrEmpty(col(row, COL_EXTINCT_YEAR))) {
-                data.put(GbifTerm.livingPeriod, "Recent until " + col(row, COL_EXTINCT_YEAR));
-            }
-            writer.addExtensionRecord(GbifTerm.SpeciesProfile, data);
         }
+        LOG.info("{} taxa found in excel sheet", counter);
+    }
 
-        // parse references and add to EML bibliography
-        Sheet refs = wb.getSheetAt(1);
-        LOG.info("{} references found in excel sheet", refs.getPhysicalNumberOfRows());
-        iter = refs.rowIterator();
-        while (iter.hasNext()) {
-            Row row = iter.next();
-            String abbrev = col(row, COL_REF_ABBREV);
-            if (StringUtils.isBlank(abbrev)) {
-                LOG.debug("Suspicous reference with empty citation abbreviation, ignore line {}", row.getRowNum());
-                continue;
-            }
-            String refCitation = buildCitation(col(row, COL_REF_AUTHOR), col(row, COL_REF_YEAR), col(row, COL_REF_TITLE), col(row, COL_REF_JOURNAL));
-            if (!StringUtils.isBlank(refCitation)) {
-                Citation c = new Citation();
-                c.setText(refCitation);
-                c.setIdentifier(link(row, COL_REF_TITLE));
-                dataset.getBibliographicCitations().add(c);
+    /**
+     * Adds the references sheet to the EML bibliography.
+     */
+    private void parseReferences(XlsxReader wb) throws Exception {
+        ExcelUtils.RowView r = rowView(COL_REF_ABBREV, COL_REF_AUTHOR, COL_REF_YEAR, COL_REF_TITLE, COL_REF_JOURNAL);
+        int counter = 0;
+        try (XlsxReader.Sheet refs = wb.sheet(1, true)) {
+            while (refs.hasNext()) {
+                XlsxReader.Row row = refs.next();
+                r.read(row);
+                String abbrev = r.get(COL_REF_ABBREV);
+                if (StringUtils.isBlank(abbrev)) {
+                    LOG.debug("Suspicous reference with empty citation abbreviation, ignore line {}", r.getRowNum());
+                    continue;
+                }
+                String refCitation = buildCitation(r.get(COL_REF_AUTHOR), r.get(COL_REF_YEAR), r.get(COL_REF_TITLE), r.get(COL_REF_JOURNAL));
+                if (!StringUtils.isBlank(refCitation)) {
+                    Citation c = new Citation();
+                    c.setText(refCitation);
+                    c.setIdentifier(link(row, COL_REF_TITLE));
+                    dataset.getBibliographicCitations().add(c);
+                    counter++;
+                }
             }
         }
+        LOG.info("{} references found in excel sheet", counter);
     }
 
     @Override
@@ -59,7 +59,7 @@ public class ArchiveBuilder extends AbstractBuilder {
     } catch (InterruptedException e) {
       LOG.error("Flickr export interrupted", e);
     }
-    LOG.info("Finished flickr export with {} records", writer.getRecordsWritten());
+    LOG.info("Finished flickr export with {} records", imgWriter.getImagesWritten());
   }
 
   @Override
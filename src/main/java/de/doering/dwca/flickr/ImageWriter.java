@@ -2,6 +2,7 @@ package de.doering.dwca.flickr;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import de.doering.dwca.ExtensionRow;
 import org.gbif.dwc.DwcaWriter;
 import org.gbif.dwc.terms.*;
 import org.slf4j.Logger;
@@ -9,8 +10,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
-import java.util.Map;
 
 public class ImageWriter {
   private static final Logger LOG = LoggerFactory.getLogger(ImageWriter.class);
@@ -19,10 +18,14 @@ public class ImageWriter {
   private final Term thumbnail = new UnknownTerm(URI.create("http://flickr.com/terms/smallSquareUrl"),"flickr","smallSquareUrl", false);
   private final Term flickrid = new UnknownTerm(URI.create("http://flickr.com/terms/photoId"),"flickr", "photoId", false);
   private final Cache<String, Boolean> cache;
+  private final ExtensionRow image;
+  private int imagesWritten;
 
   public ImageWriter(DwcaWriter writer, int cacheSize) {
     this.writer = writer;
     cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    image = new ExtensionRow(writer, GbifTerm.Image, flickrid, DcTerm.references, DcTerm.identifier, thumbnail,
+        DcTerm.license, DcTerm.rightsHolder, DcTerm.created, DcTerm.title, DcTerm.description);
   }
 
   public synchronized boolean writeImage(FlickrImage img) throws IOException {
@@ -64,24 +67,27 @@ public class ImageWriter {
     }
 
     // add image extension
-    Map<Term, String> data = new HashMap<Term, String>();
-    data.put(flickrid,img.getId());
-    data.put(DcTerm.references, img.getLink());
-    data.put(DcTerm.identifier, img.getImage());
-    data.put(thumbnail,img.getThumb());
-    data.put(DcTerm.license, img.getLicense());
-    data.put(DcTerm.rightsHolder, img.getOwner());
+    image.set(flickrid,img.getId());
+    image.set(DcTerm.references, img.getLink());
+    image.set(DcTerm.identifier, img.getImage());
+    image.set(thumbnail,img.getThumb());
+    image.set(DcTerm.license, img.getLicense());
+    image.set(DcTerm.rightsHolder, img.getOwner());
     if (img.getDateRecorded()!=null){
-      data.put(DcTerm.created, img.getDateRecorded().toString());
+      image.set(DcTerm.created, img.getDateRecorded().toString());
     }
-    data.put(DcTerm.title, img.getTitle());
-    data.put(DcTerm.description, img.getDescription());
-    writer.addExtensionRecord(GbifTerm.Image, data);
+    image.set(DcTerm.title, img.getTitle());
+    image.set(DcTerm.description, img.getDescription());
+    image.write();
 
-    if (writer.getRecordsWritten() % 1000 == 0) {
-      LOG.debug("{} images written in total", writer.getRecordsWritten());
+    if (++imagesWritten % 1000 == 0) {
+      LOG.debug("{} images written in total", imagesWritten);
     }
     return true;
   }
 
+  public synchronized int getImagesWritten() {
+    return imagesWritten;
+  }
+
 }
@@ -17,6 +17,8 @@ package de.doering.dwca.ioc;
 
 import de.doering.dwca.AbstractBuilder;
 import de.doering.dwca.BuilderConfig;
+import de.doering.dwca.utils.HttpUtils;
+import de.doering.dwca.utils.ReleaseRegistry;
 import org.gbif.api.vocabulary.ContactType;
 import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.api.vocabulary.License;
@@ -33,11 +35,17 @@ import java.io.Reader;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 public class ArchiveBuilder extends AbstractBuilder {
   public static final String XML_DOWNLOAD = "https://www.worldbirdnames.org/master_ioc-names_xml.xml";
   public static final String ENCODING = "UTF-8";
+  // release registry entry of the xml with its version and year, shared with the multilingual builder
+  public static final String XML_RELEASE = "ioc-xml";
+  public static final String VERSION = "version";
+  public static final String YEAR = "year";
   // metadata
   public static final String HOMEPAGE = "https://www.worldbirdnames.org";
   public static final String LOGO = "https://www.worldbirdnames.org/img/hdr7.jpg";
@@ -57,12 +65,20 @@ public class ArchiveBuilder extends AbstractBuilder {
       "Special thanks always to our expert advisors (left panel), to Sally Conyne for compiling Ranges, to Eng-Li Green for website management, to Larry Master and Colin Campbell for photos, to Peter Kovalik for spreadsheet magic, and to all volunteer participants. We welcome your corrections and your suggestions for improvement.  " +
       "You can reach us at worldbirdnames@gmail.com.";
   List<String> cookies = null;
+  // validators of the xml at the time the cookies were set
+  private String xmlEtag;
+  private String xmlLastModified;
 
 
   public ArchiveBuilder(BuilderConfig cfg) {
     super(DatasetType.CHECKLIST, cfg);
   }
 
+  @Override
+  protected List<String> inputUrls() {
+    return List.of(XML_DOWNLOAD);
+  }
+
   @Override
   protected void parseData() throws IOException, SAXException, ParserConfigurationException {
     // get xml data
@@ -83,6 +99,7 @@ public class ArchiveBuilder extends AbstractBuilder {
       setPubDate(handler.getYear());
       dataset.setTitle(TITLE);
       dataset.setVersion(handler.getVersion());
+      recordXmlRelease(handler.getVersion(), handler.getYear());
 
     } catch (Exception e) {
       LOG.error("Cannot process IOC XML", e);
@@ -92,6 +109,18 @@ public class ArchiveBuilder extends AbstractBuilder {
   void setCookies() throws Exception {
     HttpResponse<?> cookieResponse = http.head(XML_DOWNLOAD);
     cookies = cookieResponse.headers().allValues("Set-Cookie");
+    xmlEtag = HttpUtils.etag(cookieResponse);
+    xmlLastModified = HttpUtils.lastModified(cookieResponse);
+  }
+
+  /**
+   * Records version and year of the parsed xml, so the multilingual builder does not need to read it again.
+   */
+  private void recordXmlRelease(String version, String year) throws IOException {
+    if (releases != null && version != null && year != null && (xmlEtag != null || xmlLastModified != null)) {
+      releases.put(XML_RELEASE, new ReleaseRegistry.Release(XML_DOWNLOAD, xmlEtag, xmlLastModified, Instant.now(),
+          Map.of(VERSION, version, YEAR, year)));
+    }
   }
 
   InputStream getStreamWithCookies() throws Exception {
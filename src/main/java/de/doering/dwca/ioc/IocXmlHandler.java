@@ -5,18 +5,19 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import de.doering.dwca.ExtensionRow;
+import de.doering.dwca.utils.Normalizer;
+import de.doering.dwca.utils.Normalizers;
 import org.apache.commons.lang3.StringUtils;
 import org.gbif.dwc.DwcaWriter;
 import org.gbif.dwc.SimpleSaxHandler;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.GbifTerm;
-import org.gbif.dwc.terms.Term;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +30,9 @@ public class IocXmlHandler extends SimpleSaxHandler {
   private Splitter commaSplit = Splitter.on(',').omitEmptyStrings().trimResults();
 
   private final DwcaWriter writer;
+  private final ExtensionRow vernacular;
+  private final ExtensionRow distribution;
+  private final ExtensionRow description;
   private String version;
   private String year;
 
@@ -60,9 +64,16 @@ public class IocXmlHandler extends SimpleSaxHandler {
     areaLookup.put("AN", "Antarctica");
     areaLookup.put("SO. CONE", "Southern Cone");
   }
+  private static final Normalizer<String> AREA = Normalizers.register("ioc area", area -> {
+    String name = areaLookup.get(area.toUpperCase());
+    return name == null ? area : name;
+  });
 
   public IocXmlHandler(DwcaWriter writer) throws IOException {
     this.writer = writer;
+    vernacular = new ExtensionRow(writer, GbifTerm.VernacularName, DwcTerm.vernacularName, DcTerm.language);
+    distribution = new ExtensionRow(writer, GbifTerm.Distribution, DwcTerm.locality, DwcTerm.occurrenceStatus, DwcTerm.occurrenceRemarks);
+    description = new ExtensionRow(writer, GbifTerm.Description, DcTerm.description, DcTerm.type);
 
     // Root classification
     current = new Taxon();
@@ -123,24 +134,19 @@ public class IocXmlHandler extends SimpleSaxHandler {
       writer.addCoreColumn(DwcTerm.parentNameUsageID, parents.getLast().id.toString());
     }
 
-    Map<Term, String> data = new HashMap<Term, String>();
     if (!Strings.isNullOrEmpty(current.englishName)) {
-      data.put(DwcTerm.vernacularName, current.englishName);
-      data.put(DcTerm.language, "en");
-      writer.addExtensionRecord(GbifTerm.VernacularName, data);
+      vernacular.set(DwcTerm.vernacularName, current.englishName);
+      vernacular.set(DcTerm.language, "en");
+      vernacular.write();
     }
 
     // distribution only for higher region;
     if (current.breedingRegions != null) {
       for (String area : commaSplit.split(current.breedingRegions)) {
-        if (areaLookup.containsKey(area.toUpperCase())) {
-          area = areaLookup.get(area.toUpperCase());
-        }
-        data = new HashMap<Term, String>();
-        data.put(DwcTerm.locality, area);
-        data.put(DwcTerm.occurrenceStatus, "present");
-        data.put(DwcTerm.occurrenceRemarks, "Breeding region");
-        writer.addExtensionRecord(GbifTerm.Distribution, data);
+        distribution.set(DwcTerm.locality, AREA.normalize(area));
+        distribution.set(DwcTerm.occurrenceStatus, "present");
+        distribution.set(DwcTerm.occurrenceRemarks, "Breeding region");
+        distribution.write();
       }
     }
 
@@ -164,10 +170,9 @@ public class IocXmlHandler extends SimpleSaxHandler {
     }
     String d = distribution.toString().trim();
     if (!d.isEmpty()) {
-      data = new HashMap<Term, String>();
-      data.put(DcTerm.description, d);
-      data.put(DcTerm.type, "Distribution");
-      writer.addExtensionRecord(GbifTerm.Description, data);
+      description.set(DcTerm.description, d);
+      description.set(DcTerm.type, "Distribution");
+      description.write();
     }
   }
 
@@ -20,30 +20,37 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import de.doering.dwca.AbstractBuilder;
 import de.doering.dwca.BuilderConfig;
-import de.doering.dwca.ioc.IocXmlHandler;
+import de.doering.dwca.ExtensionRow;
+import de.doering.dwca.utils.ExcelUtils;
+import de.doering.dwca.utils.Normalizers;
+import de.doering.dwca.utils.ReleaseRegistry;
+import de.doering.dwca.utils.XlsxReader;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.api.vocabulary.Language;
-import org.gbif.common.parsers.LanguageParser;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.GbifTerm;
-import org.gbif.dwc.terms.Term;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import javax.annotation.Nullable;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
+import static de.doering.dwca.ioc.ArchiveBuilder.VERSION;
 import static de.doering.dwca.ioc.ArchiveBuilder.XML_DOWNLOAD;
+import static de.doering.dwca.ioc.ArchiveBuilder.XML_RELEASE;
+import static de.doering.dwca.ioc.ArchiveBuilder.YEAR;
 
 public class ArchiveBuilder extends AbstractBuilder {
   // to be updated manually to current version !!!
@@ -55,6 +62,7 @@ public class ArchiveBuilder extends AbstractBuilder {
   private static final String CONTACT_FIRST = "Peter";
   private static final String CONTACT_LAST = "Kovalik";
   private static final String EMAIL = "bbokovalik@gmail.com";
+  private static final String STOP_PARSING = "metadata read";
 
   // SPREADSHEET FORMAT
   private static final int SHEET_IDX = 0;
@@ -65,67 +73,110 @@ public class ArchiveBuilder extends AbstractBuilder {
   private static final int COL_NAME = 3;
 
   private int columns = -1;
+  private String xlsUrl;
 
   public ArchiveBuilder(BuilderConfig cfg) {
     super(DatasetType.CHECKLIST, cfg);
   }
 
+  @Override
+  protected List<String> inputUrls() throws IOException {
+    return List.of(xlsUrl(), XML_DOWNLOAD);
+  }
+
+  private String xlsUrl() throws IOException {
+    if (xlsUrl == null) {
+      xlsUrl = findLastVersion();
+    }
+    return xlsUrl;
+  }
+
   protected void parseData() throws Exception {
     // get excel sheet
     parseData(downloadXls());
     //parseData(FILE);
   }
 
+  /**
+   * Takes version and year from the release registry if the IOC xml is unchanged since they were recorded.
+   * Otherwise they are read from the root element of the xml only, without parsing the whole list.
+   */
   private void parseXmlMetadata() {
-    // get xml data
-    LOG.info("Parse metadata from latest IOC world bird list at {}", XML_DOWNLOAD);
-
-    // parse page
-    SAXParserFactory factory = SAXParserFactory.newInstance();
-
     try {
-      final SAXParser parser = factory.newSAXParser();
-      IocXmlHandler handler = new IocXmlHandler(null);
-      // execute
-      InputStream in = http.getStream(XML_DOWNLOAD);
-      Reader reader = new InputStreamReader(in, de.doering.dwca.ioc.ArchiveBuilder.ENCODING);
-      parser.parse(new InputSource(reader), handler);
-
-      setPubDate(handler.getYear());
+      ReleaseRegistry.Release xml = null;
+      if (releases != null) {
+        xml = releases.get(XML_RELEASE);
+        // a conditional request also provides the validators for a first record
+        xml = revalidate(xml != null ? xml : new ReleaseRegistry.Release(XML_DOWNLOAD, null, null, Instant.now()));
+      }
+      if (xml == null || xml.get(VERSION) == null) {
+        xml = readXmlRelease(xml);
+      } else {
+        LOG.info("IOC xml unchanged since version {} was recorded", xml.get(VERSION));
+      }
+      setPubDate(xml.get(YEAR));
       dataset.setTitle(TITLE);
-      dataset.setVersion(handler.getVersion());
+      dataset.setVersion(xml.get(VERSION));
 
     } catch (Exception e) {
       LOG.error("Cannot process IOC XML", e);
     }
   }
 
+  /**
+   * Reads version and year from the root element of the IOC xml and records them if validators are known.
+   */
+  private ReleaseRegistry.Release readXmlRelease(@Nullable ReleaseRegistry.Release checked) throws Exception {
+    LOG.info("Parse metadata from latest IOC world bird list at {}", XML_DOWNLOAD);
+    final Map<String, String> attributes = new HashMap<>();
+    DefaultHandler handler = new DefaultHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
+        if ("ioclist".equalsIgnoreCase(qName)) {
+          attributes.put(VERSION, attrs.getValue(VERSION));
+          attributes.put(YEAR, attrs.getValue(YEAR));
+        }
+        // the root element has all we need
+        throw new SAXException(STOP_PARSING);
+      }
+    };
+    try (Reader reader = new InputStreamReader(http.getStream(XML_DOWNLOAD), de.doering.dwca.ioc.ArchiveBuilder.ENCODING)) {
+      SAXParserFactory.newInstance().newSAXParser().parse(new InputSource(reader), handler);
+    } catch (SAXException e) {
+      if (!STOP_PARSING.equals(e.getMessage())) {
+        throw e;
+      }
+    }
+    attributes.values().removeIf(Objects::isNull);
+    ReleaseRegistry.Release xml = new ReleaseRegistry.Release(XML_DOWNLOAD,
+        checked == null ? null : checked.etag, checked == null ? null : checked.lastModified, Instant.now(), attributes);
+    if (releases != null && (xml.etag != null || xml.lastModified != null)) {
+      releases.put(XML_RELEASE, xml);
+    }
+    return xml;
+  }
+
   @VisibleForTesting
   static String url(String version){
     return DOWNLOAD.replace("{VERSION}", version);
   }
 
-  private String findLastVersion(){
-    // recently these have been published annually in august only, but there have been different month before
-    // try and find a list for each month going backwards until we hit sth
+  private String findLastVersion() throws IOException {
+    // try all versions going backwards until we hit sth
+    List<String> candidates = new ArrayList<>();
     for (int major=15; major>=10; major--) {
       for (int minor=3; minor>0; minor--) {
-        String version = version(major, minor, null);
-        String url = url(version);
-        LOG.info("Try version {} at {}", version, url);
-        if (http.exists(url)){
-          return url;
-        }
+        candidates.add(url(version(major, minor, null)));
         // try _b suffix which sometimes is used
-        version = version(major, minor, "_b");
-        url = url(version);
-        LOG.info("Try version {} at {}", version, url);
-        if (http.exists(url)){
-          return url;
-        }
+        candidates.add(url(version(major, minor, "_b")));
       }
     }
-    throw new IllegalStateException("Unable to find any publication");
+    LOG.info("Probe {} versions", candidates.size());
+    String url = findRelease(candidates);
+    if (url == null) {
+      throw new IllegalStateException("Unable to find any publication");
+    }
+    return url;
   }
 
   @VisibleForTesting
@@ -138,7 +189,7 @@ public class ArchiveBuilder extends AbstractBuilder {
   }
 
   private File downloadXls() throws Exception {
-    String url = findLastVersion();
+    String url = xlsUrl();
     // get excel sheet
     LOG.info("Downloading latest data from {}", url);
 
@@ -150,22 +201,20 @@ public class ArchiveBuilder extends AbstractBuilder {
     return xls;
   }
 
-  private String[] flattenedRow(Iterator<Row> iter, @Nullable Row first) {
-    if (first == null && iter.hasNext()) {
-      first = iter.next();
-    }
+  private String[] flattenedRow(Iterator<XlsxReader.Row> iter) {
     String[] cols;
-    if (first == null) {
+    if (!iter.hasNext()) {
       cols = new String[100];
 
     } else {
-      cols = new String[first.getLastCellNum()];
+      XlsxReader.Row first = iter.next();
+      cols = new String[first.size()];
 
       for (int seed = 0; seed < FLATTEN_ROWS; seed++) {
         if (seed != 0 && !iter.hasNext()) continue;
-        Row row = seed==0 ? first : iter.next();
+        XlsxReader.Row row = seed==0 ? first : iter.next();
         int idx = COL_NAME + seed;
-        while (idx < row.getLastCellNum()) {
+        while (idx < row.size() && idx < cols.length) {
           cols[idx] = col(row, idx);
           idx += FLATTEN_ROWS;
         }
@@ -175,33 +224,42 @@ public class ArchiveBuilder extends AbstractBuilder {
   }
 
   // parse XLS
-  private void parseData(File xls) throws IOException, InvalidFormatException {
-
-    Workbook wb = WorkbookFactory.create(xls);
-    Sheet sheet = wb.getSheetAt(SHEET_IDX);
-    int rows = sheet.getPhysicalNumberOfRows();
-    LOG.info("{} rows found in excel sheet", rows);
-
-    Iterator<Row> iter = sheet.rowIterator();
+  @VisibleForTesting
+  void parseData(File xls) throws IOException {
+    try (XlsxReader wb = XlsxReader.open(xls);
+         XlsxReader.Sheet iter = wb.sheet(SHEET_IDX, false)) {
+      parseSheet(iter);
+    }
+  }
 
+  private void parseSheet(Iterator<XlsxReader.Row> iter) throws IOException {
     // header
-    String[] header = flattenedRow(iter, null);
+    String[] header = flattenedRow(iter);
     parseHeader(header);
 
+    ExtensionRow vernacular = extensionRow(GbifTerm.VernacularName, DcTerm.language, DwcTerm.vernacularName);
+    ExcelUtils.RowView r = rowView(COL_ORDER, COL_FAMILY, COL_NAME);
+    // the species row followed by the rows holding the other flattened columns
+    XlsxReader.Row[] seeds = new XlsxReader.Row[FLATTEN_ROWS];
     String order = null;
     String family = null;
+    int species = 0;
     while (iter.hasNext()) {
-      Row row = iter.next();
-      if (!Strings.isNullOrEmpty(col(row, COL_ORDER))) {
-        order = StringUtils.capitalize(col(row, COL_ORDER));
+      XlsxReader.Row row = iter.next();
+      r.read(row);
+      if (!r.isEmpty(COL_ORDER)) {
+        order = StringUtils.capitalize(r.get(COL_ORDER));
 
-      } else if (!Strings.isNullOrEmpty(col(row, COL_FAMILY))) {
-        family = col(row, COL_FAMILY);
+      } else if (!r.isEmpty(COL_FAMILY)) {
+        family = r.get(COL_FAMILY);
 
       } else {
         // species
-        String[] cols = flattenedRow(iter, row);
-        String name = col(row, COL_NAME);
+        seeds[0] = row;
+        for (int seed = 1; seed < FLATTEN_ROWS; seed++) {
+          seeds[seed] = iter.hasNext() ? iter.next() : null;
+        }
+        String name = r.get(COL_NAME);
         writer.newRecord(name);
         writer.addCoreColumn(DwcTerm.kingdom, "Animalia");
         writer.addCoreColumn(DwcTerm.order, order);
@@ -209,24 +267,27 @@ public class ArchiveBuilder extends AbstractBuilder {
         writer.addCoreColumn(DwcTerm.scientificName, name);
         writer.addCoreColumn(DwcTerm.taxonRank, "species");
         // vernacular names
+        // decode only the language columns, each from the row it is flattened from
         for (Map.Entry<Integer, Language> entry : LANG_COLS.entrySet()) {
-          String vname = cols[entry.getKey()];
+          XlsxReader.Row seed = seeds[(entry.getKey() - COL_NAME) % FLATTEN_ROWS];
+          String vname = seed == null ? null : col(seed, entry.getKey());
           if (StringUtils.isBlank(vname)) continue;
 
-          Map<Term, String> ext = Maps.newHashMap();
-          ext.put(DcTerm.language, entry.getValue().getIso3LetterCode());
-          ext.put(DwcTerm.vernacularName, vname);
-          writer.addExtensionRecord(GbifTerm.VernacularName, ext);
+          vernacular.set(DcTerm.language, entry.getValue().getIso3LetterCode());
+          vernacular.set(DwcTerm.vernacularName, vname);
+          vernacular.write();
         }
+        species++;
       }
     }
+    LOG.info("{} species found in excel sheet", species);
   }
 
   private void parseHeader(String[] header) {
     int idx = 0;
     for (String val : header) {
       if (idx != COL_NAME && !Strings.isNullOrEmpty(val)) {
-        Language lang = LanguageParser.getInstance().parse(val).getPayload();
+        Language lang = Normalizers.LANGUAGE.normalize(val);
         if (lang == null) {
           LOG.error("Cannot parse header language {}", val);
         } else {
@@ -15,8 +15,14 @@
  */
 package de.doering.dwca.itis;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import de.doering.dwca.AbstractBuilder;
 import de.doering.dwca.BuilderConfig;
+import de.doering.dwca.ExtensionRow;
+import de.doering.dwca.utils.SqliteDatabase;
+import de.doering.dwca.utils.ZipUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.gbif.api.model.common.DOI;
 import org.gbif.api.model.registry.Contact;
@@ -25,19 +31,17 @@ import org.gbif.api.vocabulary.Country;
 import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.api.vocabulary.License;
 import org.gbif.dwc.terms.*;
-import org.gbif.utils.file.CompressionUtil;
-import org.gbif.utils.file.FileUtils;
-import org.sqlite.SQLiteConfig;
 
-import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ArchiveBuilder extends AbstractBuilder {
 
@@ -65,10 +69,58 @@ public class ArchiveBuilder extends AbstractBuilder {
   private static final Term TERM_ISBN = new UnknownTerm(URI.create("http://itis.org/terms/ISBN"), false);
   private static final Term TERM_ISSN = new UnknownTerm(URI.create("http://itis.org/terms/ISSN"), false);
 
+  // taxon core
+  private static final String SQL_CORE = "SELECT t.tsn,	t.parent_tsn, group_concat(sl.tsn_accepted, ',') AS acceptedIds, " +
+      "ln.completename, a.taxon_author, tut.rank_name," +
+      "t.name_usage AS tax_status, t.unaccept_reason AS nom_status, t.completeness_rtng," +
+      "rl.documentation_id AS publication_id" +
+      " FROM taxonomic_units t" +
+      " JOIN longnames ln ON t.tsn = ln.tsn" +
+      " JOIN taxon_unit_types tut ON t.rank_id = tut.rank_id AND t.kingdom_id = tut.kingdom_id" +
+      " LEFT JOIN taxon_authors_lkp a ON t.taxon_author_id = a.taxon_author_id" +
+      " LEFT JOIN synonym_links sl ON sl.tsn = t.tsn" +
+      " LEFT JOIN reference_links rl ON rl.tsn = t.tsn AND rl.doc_id_prefix = 'PUB' AND rl.original_desc_ind = 'Y'" +
+      " WHERE t.tsn >= ? AND t.tsn < ?" +
+      " GROUP BY t.tsn" +
+      " ORDER BY t.tsn";
+  // Each child table is read once ordered by tsn and merge joined with the core query.
+  // Ordering by tsn alone lets sqlite scan the same tsn index a lookup per tsn would use,
+  // so rows of the same tsn keep the order they had with separate queries.
+  //TODO: link vernacular references via vern_ref_links
+  private static final String SQL_VERNACULARS = "SELECT tsn, vernacular_name, language, approved_ind FROM vernaculars" +
+      " WHERE tsn >= ? AND tsn < ? ORDER BY tsn";
+  private static final String SQL_DISTRIBUTIONS = "SELECT tsn, geographic_value FROM geographic_div" +
+      " WHERE tsn >= ? AND tsn < ? ORDER BY tsn";
+  // publications are looked up in the preloaded Publications
+  private static final String SQL_REFERENCES = "SELECT rl.tsn, rl.documentation_id AS publication_id" +
+      " FROM reference_links rl" +
+      " WHERE rl.doc_id_prefix = 'PUB' AND rl.tsn >= ? AND rl.tsn < ?" +
+      " ORDER BY rl.tsn";
+  // taxa extracted per worker task
+  private static final int CHUNK_SIZE = 5000;
+  private static final Term[] CORE_TERMS = {DwcTerm.taxonID, DwcTerm.parentNameUsageID, DwcTerm.acceptedNameUsageID,
+      DwcTerm.scientificName, DwcTerm.scientificNameAuthorship, DwcTerm.taxonRank, DwcTerm.taxonomicStatus,
+      DwcTerm.nomenclaturalStatus, TERM_ITIS_COMPLETE, DwcTerm.namePublishedIn, DwcTerm.namePublishedInYear,
+      // followed by the denormalized classification
+      DwcTerm.kingdom, DwcTerm.phylum, DwcTerm.class_, DwcTerm.order, DwcTerm.family, DwcTerm.genus};
+  private static final Term[] VERNACULAR_TERMS = {DwcTerm.vernacularName, DcTerm.language};
+  private static final Term[] DISTRIBUTION_TERMS = {DwcTerm.locality};
+  private static final Term[] REFERENCE_TERMS = {DcTerm.bibliographicCitation, DcTerm.creator, DcTerm.title,
+      DcTerm.source, DcTerm.date, DcTerm.publisher, TERM_PAGES, TERM_ISBN, TERM_ISSN};
+
+  // smaller in tests to cover chunk boundaries
+  @VisibleForTesting
+  int chunkSize = CHUNK_SIZE;
+
   public ArchiveBuilder(BuilderConfig cfg) {
     super(DatasetType.CHECKLIST, cfg);
   }
 
+  @Override
+  protected List<String> inputUrls() {
+    return List.of(DOWNLOAD);
+  }
+
   /**
    * We prefer the excel sheet over the CSV file as the CSV contains bad encodings for some characters of the
    * distribution area names.
@@ -77,176 +129,210 @@ public class ArchiveBuilder extends AbstractBuilder {
   protected void parseData() throws Exception {
     // download latest ITIS as sqlite
     LOG.info("Downloading latest ITIS from {}", DOWNLOAD);
-    final File tmp = FileUtils.createTempDir();
-    tmp.deleteOnExit();
-
     final File zip = File.createTempFile("itis", ".zip");
-    zip.deleteOnExit();
+    final File sqlite = File.createTempFile("itis", ".sqlite");
+    try {
+      http.download(DOWNLOAD, zip);
+      // sqlite needs a real file, so only the database is extracted and nothing else in the zip
+      if (!ZipUtils.extract(zip, "ITIS.sqlite", sqlite)) {
+        throw new IllegalStateException("No sqlite file found in ZIP: " + zip.getAbsolutePath());
+      }
+      FileUtils.deleteQuietly(zip);
 
-    http.download(DOWNLOAD, zip);
-    // decompress
-    List<File> files = CompressionUtil.unzipFile(tmp, zip);
-    // try to open sqlite
-    Optional<File> sqlite = files.stream().filter(f -> f.getName().equalsIgnoreCase("ITIS.sqlite")).findFirst();
-    if (!sqlite.isPresent()) {
-      throw new IllegalStateException("No sqlite file found in ZIP: " + zip.getAbsolutePath());
-    }
+      //TODO: extract last dump date somehow
+      dataset.setPubDate(new Date());
 
-    //TODO: extract last dump date somehow
-    dataset.setPubDate(new Date());
+      // the extracted file is ours, so indexes can be added to it directly
+      processSql(sqlite, true);
 
-    processSql(sqlite.get());
+    } finally {
+      FileUtils.deleteQuietly(zip);
+      FileUtils.deleteQuietly(sqlite);
+    }
   }
 
-  private void processSql(File sqlite) {
-    SQLiteConfig cfg = new SQLiteConfig();
-    cfg.setReadOnly(true);
-    int tsn=0;
-    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + sqlite.getAbsoluteFile().getAbsolutePath(), cfg.toProperties())) {
-      Statement stmt = connection.createStatement();
-      // taxon core
-      String sqlCore = "SELECT t.tsn,	t.parent_tsn, group_concat(sl.tsn_accepted, ',') AS acceptedIds, " +
-          "ln.completename, a.taxon_author, tut.rank_name," +
-          "t.name_usage AS tax_status, t.unaccept_reason AS nom_status, t.completeness_rtng," +
-          "p.publication_id, p.reference_author, p.title, p.publication_name, p.listed_pub_date, p.actual_pub_date, p.publisher, p.pages, p.isbn, p.issn" +
-      " FROM taxonomic_units t" +
-        " JOIN longnames ln ON t.tsn = ln.tsn" +
-        " JOIN taxon_unit_types tut ON t.rank_id = tut.rank_id AND t.kingdom_id = tut.kingdom_id" +
-        " LEFT JOIN taxon_authors_lkp a ON t.taxon_author_id = a.taxon_author_id" +
-        " LEFT JOIN synonym_links sl ON sl.tsn = t.tsn" +
-        " LEFT JOIN reference_links rl ON rl.tsn = t.tsn AND rl.doc_id_prefix = 'PUB' AND rl.original_desc_ind = 'Y'" +
-        " LEFT JOIN publications p ON p.publication_id = rl.documentation_id " +
-      " GROUP BY t.tsn" +
-      " ORDER BY t.tsn";
+  @VisibleForTesting
+  void processSql(File sqlite) throws Exception {
+    processSql(sqlite, false);
+  }
+
+  /**
+   * The taxonomy is split into chunks of consecutive tsns which are extracted on their own connection
+   * by cfg.threads workers and written in tsn order by the single archive writer.
+   *
+   * Any failure, also of a single chunk, fails the whole extraction.
+   *
+   * @param inPlace true if missing indexes may be added to the sqlite file itself
+   */
+  private void processSql(File sqlite, boolean inPlace) throws Exception {
+    // the child tables are merge joined by tsn, so they must be readable in tsn order without sorting
+    try (SqliteDatabase db = new SqliteDatabase(sqlite, inPlace)
+             .requireIndex("synonym_links", "tsn")
+             .requireIndex("reference_links", "tsn")
+             .requireIndex("vernaculars", "tsn")
+             .requireIndex("geographic_div", "tsn")) {
+      List<Long> starts;
+      final Publications publications;
+      final Classification classification;
+      try (Connection connection = db.open()) {
+        SqliteDatabase.explain(connection, "core", SQL_CORE, 0, Long.MAX_VALUE);
+        SqliteDatabase.explain(connection, "vernaculars", SQL_VERNACULARS, 0, Long.MAX_VALUE);
+        SqliteDatabase.explain(connection, "distributions", SQL_DISTRIBUTIONS, 0, Long.MAX_VALUE);
+        SqliteDatabase.explain(connection, "references", SQL_REFERENCES, 0, Long.MAX_VALUE);
+        starts = partition(connection);
+        publications = Publications.load(connection);
+        classification = Classification.load(connection);
+      }
+      LOG.info("Loaded {} publications and the classification", publications.size());
+      LOG.info("Extract ITIS in {} chunks of {} taxa with {} threads", starts.size(), chunkSize, cfg.threads);
 
-      //TODO: link vernacular references via vern_ref_links
-      PreparedStatement vpst = connection.prepareStatement("SELECT vernacular_name, language, approved_ind FROM vernaculars WHERE tsn = ?");
-      PreparedStatement dpst = connection.prepareStatement("SELECT geographic_value FROM geographic_div WHERE tsn = ?");
-      PreparedStatement rpst = connection.prepareStatement("SELECT p.publication_id, p.reference_author, p.title, p.publication_name, p.listed_pub_date, p.actual_pub_date, p.publisher, p.pages, p.isbn, p.issn " +
-          " FROM reference_links rl JOIN publications p ON p.publication_id = rl.documentation_id" +
-          " WHERE rl.doc_id_prefix = 'PUB' AND rl.tsn = ?");
       writer.addDefaultValue(GbifTerm.Distribution, DwcTerm.occurrenceStatus, "present");
       writer.addCoreMultiValueDelimiter(DwcTerm.acceptedNameUsageID, ",");
+      ExtensionRow vernacular = extensionRow(GbifTerm.VernacularName, VERNACULAR_TERMS);
+      ExtensionRow distribution = extensionRow(GbifTerm.Distribution, DISTRIBUTION_TERMS);
+      ExtensionRow reference = extensionRow(GbifTerm.Reference, REFERENCE_TERMS);
 
-      ResultSet rs = stmt.executeQuery(sqlCore);
+      ExecutorService exec = Executors.newFixedThreadPool(cfg.threads);
+      try {
+        // chunks are submitted ahead of the writer only as far as needed to keep all workers busy
+        Deque<Future<List<Taxon>>> pending = new ArrayDeque<>();
+        int next = 0;
+        while (next < starts.size() || !pending.isEmpty()) {
+          while (next < starts.size() && pending.size() < 2 * cfg.threads) {
+            final long from = starts.get(next);
+            final long to = ++next < starts.size() ? starts.get(next) : Long.MAX_VALUE;
+            pending.add(exec.submit(() -> {
+              try {
+                return extract(db, publications, classification, from, to);
+              } catch (Exception e) {
+                throw new IOException("Failed to extract ITIS taxa with tsn " + from + " <= tsn < " + to, e);
+              }
+            }));
+          }
+          List<Taxon> taxa;
+          try {
+            taxa = pending.poll().get();
+          } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+          }
+          for (Taxon t : taxa) {
+            writer.newRecord(Integer.toString(t.tsn));
+            for (int i = 0; i < CORE_TERMS.length; i++) {
+              writer.addCoreColumn(CORE_TERMS[i], t.core[i]);
+            }
+            write(vernacular, t.vernaculars);
+            write(distribution, t.distributions);
+            write(reference, t.references);
+          }
+        }
+      } finally {
+        exec.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * @return the first tsn of each chunk of chunkSize taxa in ascending order
+   */
+  private List<Long> partition(Connection connection) throws SQLException {
+    List<Long> starts = new ArrayList<>();
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT tsn FROM taxonomic_units ORDER BY tsn")) {
+      int n = 0;
       while (rs.next()) {
-        tsn = rs.getInt("tsn");
+        if (n++ % chunkSize == 0) {
+          starts.add(rs.getLong(1));
+        }
+      }
+    }
+    return starts;
+  }
+
+  /**
+   * A taxon with all its extension rows, extracted by a worker for the archive writer.
+   * Values are in the order of CORE_TERMS and the extension term arrays.
+   */
+  private static class Taxon {
+    private final int tsn;
+    private final String[] core = new String[CORE_TERMS.length];
+    private final List<String[]> vernaculars = new ArrayList<>(1);
+    private final List<String[]> distributions = new ArrayList<>(1);
+    private final List<String[]> references = new ArrayList<>(1);
 
-        writer.newRecord(Integer.toString(tsn));
-        writer.addCoreColumn(DwcTerm.taxonID, String.valueOf(tsn));
-        writer.addCoreColumn(DwcTerm.parentNameUsageID, no0(rs.getInt("parent_tsn")));
-        writer.addCoreColumn(DwcTerm.acceptedNameUsageID, rs.getString("acceptedIds"));
-        writer.addCoreColumn(DwcTerm.scientificName, rs.getString("completename"));
-        writer.addCoreColumn(DwcTerm.scientificNameAuthorship, rs.getString("taxon_author"));
-        writer.addCoreColumn(DwcTerm.taxonRank, rs.getString("rank_name"));
-        writer.addCoreColumn(DwcTerm.taxonomicStatus, rs.getString("tax_status"));
-        writer.addCoreColumn(DwcTerm.nomenclaturalStatus, rs.getString("nom_status"));
-        writer.addCoreColumn(TERM_ITIS_COMPLETE, rs.getString("completeness_rtng"));
-        writer.addCoreColumn(DwcTerm.namePublishedIn, assembleCitation(
-            (Integer) rs.getObject("publication_id"),
-            rs.getString("reference_author"),
-            rs.getString("title"),
-            rs.getString("publication_name"),
-            rs.getString("listed_pub_date"),
-            rs.getString("publisher"),
-            rs.getString("pages"),
-            rs.getString("isbn"),
-            rs.getString("issn"))
-        );
-        writer.addCoreColumn(DwcTerm.namePublishedInYear, rs.getString("actual_pub_date"));
+    Taxon(int tsn) {
+      this.tsn = tsn;
+    }
+  }
+
+  /**
+   * Extracts and formats all taxa with from &lt;= tsn &lt; to on a new connection.
+   */
+  private List<Taxon> extract(SqliteDatabase db, Publications publications, Classification classification,
+                              long from, long to) throws SQLException {
+    List<Taxon> taxa = new ArrayList<>(chunkSize);
+    try (Connection connection = db.connect();
+         PreparedStatement core = connection.prepareStatement(SQL_CORE)) {
+      TsnCursor vernaculars = new TsnCursor(connection, SQL_VERNACULARS, from, to);
+      TsnCursor distributions = new TsnCursor(connection, SQL_DISTRIBUTIONS, from, to);
+      TsnCursor references = new TsnCursor(connection, SQL_REFERENCES, from, to);
+      core.setLong(1, from);
+      core.setLong(2, to);
+      ResultSet rs = core.executeQuery();
+      while (rs.next()) {
+        Taxon t = new Taxon(rs.getInt("tsn"));
+        taxa.add(t);
+        int i = 0;
+        t.core[i++] = String.valueOf(t.tsn);
+        t.core[i++] = no0(rs.getInt("parent_tsn"));
+        t.core[i++] = rs.getString("acceptedIds");
+        t.core[i++] = rs.getString("completename");
+        t.core[i++] = rs.getString("taxon_author");
+        t.core[i++] = StringUtils.trimToNull(rs.getString("rank_name"));
+        t.core[i++] = rs.getString("tax_status");
+        t.core[i++] = rs.getString("nom_status");
+        t.core[i++] = rs.getString("completeness_rtng");
+        Integer pubId = (Integer) rs.getObject("publication_id");
+        t.core[i++] = publications.citation(pubId);
+        t.core[i++] = publications.year(pubId);
+        String[] cl = classification.classify(t.tsn);
+        System.arraycopy(cl, 0, t.core, i, cl.length);
 
         // vernacular
-        vpst.setInt(1, tsn);
-        ResultSet vrs = vpst.executeQuery();
-        while (vrs.next()) {
-          Map<Term, String> data = new HashMap<Term, String>();
-          data.put(DwcTerm.vernacularName, vrs.getString("vernacular_name"));
-          data.put(DcTerm.language, vrs.getString("language"));
-          writer.addExtensionRecord(GbifTerm.VernacularName, data);
+        while (vernaculars.next(t.tsn)) {
+          ResultSet vrs = vernaculars.row();
+          t.vernaculars.add(new String[]{vrs.getString("vernacular_name"), vrs.getString("language")});
         }
 
         // distributions
-        dpst.setInt(1, tsn);
-        ResultSet drs = dpst.executeQuery();
-        while (drs.next()) {
-          Map<Term, String> data = new HashMap<Term, String>();
-          data.put(DwcTerm.locality, drs.getString("geographic_value"));
-          writer.addExtensionRecord(GbifTerm.Distribution, data);
+        while (distributions.next(t.tsn)) {
+          t.distributions.add(new String[]{distributions.row().getString("geographic_value")});
         }
 
         // references
-        rpst.setInt(1, tsn);
-        ResultSet rrs = rpst.executeQuery();
-        while (rrs.next()) {
-          Map<Term, String> data = new HashMap<Term, String>();
-          Integer pubId = (Integer) rrs.getObject("publication_id");
-          String author = rrs.getString("reference_author");
-          String title = rrs.getString("title");
-          String pubName = rrs.getString("publication_name");
-          String date = rrs.getString("listed_pub_date");
-          String publisher = rrs.getString("publisher");
-          String pages = rrs.getString("pages");
-          String isbn = rrs.getString("isbn");
-          String issn = rrs.getString("issn");
-
-          data.put(DcTerm.bibliographicCitation, assembleCitation(
-              pubId,
-              author,
-              title,
-              pubName,
-              date,
-              publisher,
-              pages,
-              isbn,
-              issn
-          ));
-          data.put(DcTerm.creator, author);
-          data.put(DcTerm.title, title);
-          data.put(DcTerm.source, pubName);
-          data.put(DcTerm.date, date);
-          data.put(DcTerm.publisher, publisher);
-          data.put(TERM_PAGES, pages);
-          data.put(TERM_ISBN, isbn);
-          data.put(TERM_ISSN, issn);
-          writer.addExtensionRecord(GbifTerm.Reference, data);
+        while (references.next(t.tsn)) {
+          // the shared values of the publication, links to missing publications are skipped
+          String[] ref = publications.reference((Integer) references.row().getObject("publication_id"));
+          if (ref != null) {
+            t.references.add(ref);
+          }
         }
       }
-
-    } catch (SQLException | IOException e) {
-      System.err.println("Sth went wrong with TSN " + tsn);
-      e.printStackTrace();
     }
+    return taxa;
   }
 
-  private static String assembleCitation(Integer pubId, String reference_author, String title, String publication_name, @Nullable String listed_pub_date, String publisher, String pages, String isbn, String issn) {
-    if (pubId != null) {
-      StringBuilder sb = new StringBuilder();
-      sb.append(reference_author);
-      if (listed_pub_date != null) {
-        Pattern YEAR = Pattern.compile("(\\d\\d\\d\\d)-");
-        Matcher m = YEAR.matcher(listed_pub_date);
-        if (m.find()) {
-          sb.append(", ");
-          sb.append(m.group(1));
-        }
-      }
-      sb.append(": ");
-      sb.append(title);
-      if (!StringUtils.isBlank(publication_name)) {
-        sb.append(". ");
-        sb.append(publication_name);
-      }
-      if (!StringUtils.isBlank(pages)) {
-        sb.append(". ");
-        sb.append(pages);
+  private static void write(ExtensionRow row, List<String[]> records) throws IOException {
+    for (String[] values : records) {
+      for (int i = 0; i < values.length; i++) {
+        row.set(i, values[i]);
       }
-      sb.append(".");
-      return sb.toString();
+      row.write();
     }
-    return null;
   }
 
-  private String no0(int x) {
+  private static String no0(int x) {
     return x == 0 ? null : String.valueOf(x);
   }
 
@@ -0,0 +1,147 @@
+package de.doering.dwca.itis;
+
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * The higher classification of all ITIS taxa, held in primitive arrays indexed by tsn.
+ *
+ * For every taxon the nearest ancestor, or the taxon itself, with one of the major ranks is resolved once
+ * while loading, reusing the result of already resolved ancestors. A classification then only follows
+ * these links, one step per major rank. Instances are immutable and can be shared by threads.
+ */
+class Classification {
+  // ITIS rank ids of kingdom, phylum or division, class, order, family and genus
+  private static final int[] RANK_IDS = {10, 30, 60, 100, 140, 180};
+  static final Term[] TERMS = {DwcTerm.kingdom, DwcTerm.phylum, DwcTerm.class_, DwcTerm.order, DwcTerm.family, DwcTerm.genus};
+  private static final String SQL = "SELECT t.tsn, t.parent_tsn, t.rank_id," +
+      " CASE WHEN t.rank_id IN (10, 30, 60, 100, 140, 180) THEN ln.completename END AS name" +
+      " FROM taxonomic_units t LEFT JOIN longnames ln ON ln.tsn = t.tsn";
+  private static final int MISSING = -1;
+  private static final int NONE = -1;
+
+  // parent tsn, 0 for roots and MISSING for unused tsns
+  private final int[] parent;
+  // 1 based index into RANK_IDS, 0 for other ranks
+  private final byte[] rank;
+  // names of taxa with a major rank only
+  private final String[] names;
+  // nearest ancestor or self with a major rank, NONE if there is none
+  private final int[] ranked;
+
+  private Classification(int size) {
+    parent = new int[size];
+    Arrays.fill(parent, MISSING);
+    rank = new byte[size];
+    names = new String[size];
+    ranked = new int[size];
+  }
+
+  static Classification load(Connection connection) throws SQLException {
+    Classification c;
+    try (Statement stmt = connection.createStatement()) {
+      try (ResultSet rs = stmt.executeQuery("SELECT max(tsn) FROM taxonomic_units")) {
+        c = new Classification(rs.next() ? rs.getInt(1) + 1 : 0);
+      }
+      try (ResultSet rs = stmt.executeQuery(SQL)) {
+        while (rs.next()) {
+          int tsn = rs.getInt(1);
+          c.parent[tsn] = rs.getInt(2);
+          int idx = Arrays.binarySearch(RANK_IDS, rs.getInt(3));
+          if (idx >= 0) {
+            c.rank[tsn] = (byte) (idx + 1);
+            c.names[tsn] = rs.getString(4);
+          }
+        }
+      }
+    }
+    c.resolve();
+    c.verify();
+    return c;
+  }
+
+  private boolean exists(int tsn) {
+    return tsn > 0 && tsn < parent.length && parent[tsn] != MISSING;
+  }
+
+  /**
+   * Resolves the nearest ranked ancestor of all taxa in a single linear pass.
+   */
+  private void resolve() {
+    int[] path = new int[64];
+    for (int tsn = 1; tsn < parent.length; tsn++) {
+      int depth = 0;
+      int x = tsn;
+      // walk up until a resolved or ranked taxon or the root
+      while (exists(x) && ranked[x] == 0) {
+        if (rank[x] > 0) {
+          ranked[x] = x;
+          break;
+        }
+        if (depth == path.length) {
+          if (depth > parent.length) {
+            throw new IllegalStateException("Cycle in the ITIS classification at tsn " + tsn);
+          }
+          path = Arrays.copyOf(path, depth * 2);
+        }
+        path[depth++] = x;
+        x = parent[x];
+      }
+      int r = exists(x) ? ranked[x] : NONE;
+      while (depth > 0) {
+        ranked[path[--depth]] = r;
+      }
+    }
+  }
+
+  /**
+   * @return the nearest ranked ancestor of a ranked taxon, NONE for a root
+   */
+  private int next(int tsn) {
+    return exists(parent[tsn]) ? ranked[parent[tsn]] : NONE;
+  }
+
+  /**
+   * Verifies the links between ranked taxa which classify follows end at a root,
+   * as resolve only detects cycles of taxa without a major rank.
+   */
+  private void verify() {
+    // 1 while following the links from a taxon, 2 once they are known to end
+    byte[] state = new byte[parent.length];
+    for (int tsn = 1; tsn < parent.length; tsn++) {
+      int x = tsn;
+      while (x > 0 && rank[x] > 0 && state[x] == 0) {
+        state[x] = 1;
+        x = next(x);
+      }
+      if (x > 0 && state[x] == 1) {
+        throw new IllegalStateException("Cycle in the ITIS classification at tsn " + x);
+      }
+      for (x = tsn; x > 0 && state[x] == 1; x = next(x)) {
+        state[x] = 2;
+      }
+    }
+  }
+
+  /**
+   * @return the names of the major ranks of the taxon including itself, in the order of TERMS
+   */
+  String[] classify(int tsn) {
+    String[] cl = new String[RANK_IDS.length];
+    int x = exists(tsn) ? ranked[tsn] : NONE;
+    while (x > 0) {
+      int idx = rank[x] - 1;
+      if (cl[idx] == null) {
+        cl[idx] = names[x];
+      }
+      x = next(x);
+    }
+    return cl;
+  }
+}
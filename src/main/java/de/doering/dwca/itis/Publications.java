@@ -0,0 +1,122 @@
+package de.doering.dwca.itis;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * All ITIS publications loaded once and keyed by publication_id, with their citation and
+ * reference extension values rendered up front, as many taxa share the same publication.
+ * Lookups are binary searches over a sorted int array. Instances are immutable and can be shared by threads.
+ */
+class Publications {
+  private static final Pattern YEAR = Pattern.compile("(\\d\\d\\d\\d)-");
+  private static final String SQL = "SELECT publication_id, reference_author, title, publication_name, listed_pub_date, actual_pub_date, publisher, pages, isbn, issn" +
+      " FROM publications ORDER BY publication_id";
+
+  private final int[] ids;
+  // values in the order of ArchiveBuilder.REFERENCE_TERMS
+  private final String[][] references;
+  private final String[] years;
+
+  private Publications(int[] ids, String[][] references, String[] years) {
+    this.ids = ids;
+    this.references = references;
+    this.years = years;
+  }
+
+  static Publications load(Connection connection) throws SQLException {
+    List<String[]> refs = new ArrayList<>();
+    List<String> years = new ArrayList<>();
+    int[] ids = new int[1024];
+    int size = 0;
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(SQL)) {
+      while (rs.next()) {
+        if (size == ids.length) {
+          ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = rs.getInt("publication_id");
+        String author = rs.getString("reference_author");
+        String title = rs.getString("title");
+        String pubName = rs.getString("publication_name");
+        String date = rs.getString("listed_pub_date");
+        String pages = rs.getString("pages");
+        refs.add(new String[]{
+            assembleCitation(author, title, pubName, date, pages),
+            author, title, pubName, date, rs.getString("publisher"), pages, rs.getString("isbn"), rs.getString("issn")
+        });
+        years.add(rs.getString("actual_pub_date"));
+      }
+    }
+    return new Publications(Arrays.copyOf(ids, size), refs.toArray(new String[0][]), years.toArray(new String[0]));
+  }
+
+  private int index(@Nullable Integer id) {
+    return id == null ? -1 : Arrays.binarySearch(ids, id);
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  /**
+   * @return the shared reference extension values of the publication, null if it does not exist. Must not be modified.
+   */
+  @Nullable
+  String[] reference(@Nullable Integer id) {
+    int idx = index(id);
+    return idx < 0 ? null : references[idx];
+  }
+
+  /**
+   * @return the citation of the publication, null if it does not exist
+   */
+  @Nullable
+  String citation(@Nullable Integer id) {
+    int idx = index(id);
+    return idx < 0 ? null : references[idx][0];
+  }
+
+  /**
+   * @return the actual publication date of the publication, null if it does not exist
+   */
+  @Nullable
+  String year(@Nullable Integer id) {
+    int idx = index(id);
+    return idx < 0 ? null : years[idx];
+  }
+
+  private static String assembleCitation(String reference_author, String title, String publication_name, @Nullable String listed_pub_date, String pages) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(reference_author);
+    if (listed_pub_date != null) {
+      Matcher m = YEAR.matcher(listed_pub_date);
+      if (m.find()) {
+        sb.append(", ");
+        sb.append(m.group(1));
+      }
+    }
+    sb.append(": ");
+    sb.append(title);
+    if (!StringUtils.isBlank(publication_name)) {
+      sb.append(". ");
+      sb.append(publication_name);
+    }
+    if (!StringUtils.isBlank(pages)) {
+      sb.append(". ");
+      sb.append(pages);
+    }
+    sb.append(".");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,55 @@
+package de.doering.dwca.itis;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A single pass over a child table ordered by tsn, merge joined with the core taxa which are read in the same order.
+ * The first column of the query must be the tsn.
+ * The cursor is closed together with its connection.
+ */
+class TsnCursor {
+  private final ResultSet rs;
+  private boolean hasRow = true;
+  private boolean consumed = true;
+
+  /**
+   * @param sql query with two parameters for the range of tsns to read, from inclusive and to exclusive
+   */
+  TsnCursor(Connection connection, String sql, long from, long to) throws SQLException {
+    PreparedStatement stmt = connection.prepareStatement(sql);
+    stmt.setLong(1, from);
+    stmt.setLong(2, to);
+    rs = stmt.executeQuery();
+  }
+
+  /**
+   * Moves to the next row of the given tsn, skipping rows of smaller tsns.
+   * Tsns must be requested in ascending order.
+   *
+   * @return false once all rows of the tsn have been read
+   */
+  boolean next(int tsn) throws SQLException {
+    if (consumed && hasRow) {
+      hasRow = rs.next();
+      consumed = false;
+    }
+    while (hasRow && rs.getInt(1) < tsn) {
+      hasRow = rs.next();
+    }
+    if (hasRow && rs.getInt(1) == tsn) {
+      consumed = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the result set positioned on the current row
+   */
+  ResultSet row() {
+    return rs;
+  }
+}
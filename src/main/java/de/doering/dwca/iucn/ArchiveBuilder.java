@@ -15,46 +15,59 @@
  */
 package de.doering.dwca.iucn;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import de.doering.dwca.AbstractBuilder;
 import de.doering.dwca.BuilderConfig;
+import de.doering.dwca.ExtensionRow;
+import de.doering.dwca.utils.ExternalSort;
+import de.doering.dwca.utils.ExternalSort.SortedRows;
+import de.doering.dwca.utils.MappedRowStore;
+import de.doering.dwca.utils.Normalizer;
+import de.doering.dwca.utils.Normalizers;
+import de.doering.dwca.utils.Projection;
+import de.doering.dwca.utils.StringPool;
+import de.doering.dwca.utils.TableSource;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.gbif.api.model.registry.Contact;
 import org.gbif.api.vocabulary.ContactType;
 import org.gbif.api.vocabulary.DatasetType;
 import org.gbif.api.vocabulary.Language;
 import org.gbif.api.vocabulary.License;
 import org.gbif.api.vocabulary.TaxonomicStatus;
-import org.gbif.common.parsers.LanguageParser;
-import org.gbif.common.parsers.core.ParseResult;
 import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.GbifTerm;
 import org.gbif.dwc.terms.IucnTerm;
-import org.gbif.dwc.terms.Term;
-import org.gbif.utils.file.CompressionUtil;
-import org.gbif.utils.file.FileUtils;
 import org.gbif.utils.file.tabular.TabularDataFileReader;
 import org.gbif.utils.file.tabular.TabularFiles;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.ParseException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -236,223 +249,449 @@ public class ArchiveBuilder extends AbstractBuilder {
   private static final int SYN_INFRA_TYPE = 6;
   private static final int SYN_INFRA_RANK_AUTHOR = 7;
 
+  // Only the columns used below are kept in memory, which drops the long narratives of the assessments.
+  // references.csv is not read at all, see the citation note in convert.
+  private static final Projection TAX_COLUMNS = Projection.of(TAX_TAXON_ID, TAX_SCIENTIFIC_NAME, TAX_KINGDOM_NAME,
+    TAX_PHYLUM_NAME, TAX_CLASS_NAME, TAX_ORDER_NAME, TAX_FAMILY_NAME, TAX_GENUS_NAME, TAX_SPECIES_NAME,
+    TAX_INFRA_TYPE, TAX_INFRA_NAME, TAX_SUBPOPULATION_NAME, TAX_AUTHORITY);
+  private static final Projection ASS_COLUMNS = Projection.of(ASS_ASSESSMENT_ID, ASS_INTERNAL_TAXON_ID, ASS_REDLIST_CATEGORY, ASS_YEAR_PUBLISHED);
+  private static final Projection COM_COLUMNS = Projection.of(COM_INTERNAL_TAXON_ID, COM_NAME, COM_LANGUAGE, COM_MAIN);
+  private static final Projection DOI_COLUMNS = Projection.of(DOI_INTERNAL_TAXON_ID, DOI_DOI);
+  private static final Projection CRE_COLUMNS = Projection.of(CRE_INTERNAL_TAXON_ID, CRE_TYPE, CRE_TEXT, CRE_FULL);
+  private static final Projection SYN_COLUMNS = Projection.of(SYN_INTERNAL_TAXON_ID, SYN_NAME, SYN_SPECIES_AUTHOR, SYN_INFRA_RANK_AUTHOR);
+
+  // synonyms are sorted by name + author + infraAuthor
+  private static final Comparator<List<String>> SYNONYM_ORDER =
+    Comparator.comparing(o -> o.get(SYN_NAME) + o.get(SYN_SPECIES_AUTHOR) + o.get(SYN_INFRA_RANK_AUTHOR));
+  private static final long MB = 1024L * 1024L;
+  // increase when the encoding of the persisted tables changes
+  private static final int INDEX_FORMAT = 2;
+  private static final Normalizer<String> THREAT_STATUS = Normalizers.register("iucn threat status",
+    category -> category.replace("Lower Risk/", ""));
+
   public ArchiveBuilder(BuilderConfig cfg) {
     super(DatasetType.CHECKLIST, cfg);
   }
 
+  @Override
+  protected List<String> inputUrls() {
+    return List.of(DOWNLOADS);
+  }
+
   @Override
   protected void parseData() throws Exception {
     // Publication date of this checklist
     dataset.setPubDate(new Date());
 
-    int count = 0;
-    for (String downloadFile : DOWNLOADS) {
-      final File tmp = FileUtils.createTempDir();
-      tmp.deleteOnExit();
-
-      final File zip = File.createTempFile("iucn", ".zip");
-      zip.deleteOnExit();
-      http.download(downloadFile, zip);
-      List<File> files = CompressionUtil.unzipFile(tmp, zip);
-
-      // The simple_summary.csv file was probably sufficient, but isn't used.
-      // Optional<File> simple_summary = files.stream().filter(f -> f.getName().equals("simple_summary.csv")).findFirst();
-
-      // Index assessments by taxon key
-      Multimap<String, List<String>> assessmentsMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("assessments.csv")).findFirst().get(), ASS_INTERNAL_TAXON_ID);
-
-      // Index common names by taxon key
-      Multimap<String, List<String>> commonNamesMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("common_names.csv")).findFirst().get(), COM_INTERNAL_TAXON_ID);
-
-      // Index DOIs by taxon key
-      Multimap<String, List<String>> doisMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("dois.csv")).findFirst().get(), DOI_INTERNAL_TAXON_ID);
-
-      // Index references by taxon key
-      Multimap<String, List<String>> referencesMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("references.csv")).findFirst().get(), REF_INTERNAL_TAXON_ID);
-
-      // Index credits by taxon key
-      Multimap<String, List<String>> creditsMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("credits.csv")).findFirst().get(), CRE_INTERNAL_TAXON_ID);
-
-      // Index synonyms by taxon key, sorting by name + author + infraAuthor.
-      Comparator<List<String>> synonymComparator = Comparator.comparing(o -> o.get(SYN_NAME) + o.get(SYN_SPECIES_AUTHOR) + o.get(SYN_INFRA_RANK_AUTHOR));
-      Multimap<String, List<String>> synonymsMap =
-        indexByColumn(files.stream().filter(f -> f.getName().equals("synonyms.csv")).findFirst().get(), SYN_INTERNAL_TAXON_ID, synonymComparator);
-
-      // Iterate through the taxonomy
-      Optional<File> taxonomy = files.stream().filter(f -> f.getName().equals("taxonomy.csv")).findFirst();
-      TabularDataFileReader<List<String>> reader = TabularFiles.newTabularFileReader(
-        new InputStreamReader(new FileInputStream(taxonomy.get()), "UTF-8"),
-        ',', "\n", '"', true
-      );
-
-      List<String> taxon;
-      while ((taxon = reader.read()) != null) {
-        final String taxonKey = taxon.get(TAX_TAXON_ID);
-
-        // Skip subpopulation assessments, in case these have been included in the download
-        if (!Strings.isNullOrEmpty(taxon.get(TAX_SUBPOPULATION_NAME))) {
-          LOG.info("Skipping {}, which is a subpopulation taxon", taxonKey);
-          continue;
+    // The downloads are independent, so they are downloaded, unzipped and sorted concurrently.
+    // The single archive writer receives them one after the other in the order of DOWNLOADS,
+    // while the remaining downloads are still being prepared, so all of them may hold sorted tables at once.
+    final long sortBuffer = cfg.sortBufferMb * MB / DOWNLOADS.length;
+    ExecutorService exec = Executors.newFixedThreadPool(Math.min(cfg.threads, DOWNLOADS.length));
+    List<Future<SortedTables>> prepared = new ArrayList<>();
+    // downloads handed to the conversion, which closes their tables
+    int converted = 0;
+    try {
+      for (String downloadFile : DOWNLOADS) {
+        prepared.add(exec.submit(() -> prepare(downloadFile, sortBuffer)));
+      }
+      int count = 0;
+      for (Future<SortedTables> f : prepared) {
+        try (SortedTables tables = f.get()) {
+          converted++;
+          count += convert(tables);
         }
+      }
+      if (count == EXPECTED_TOTAL) {
+        LOG.info("Processed {} taxa (as expected) from the IUCN downloads", count);
+      } else {
+        LOG.error("TOTAL DOES NOT MATCH: processed {} taxa from the IUCN downloads, but expected {}", count, EXPECTED_TOTAL);
+      }
 
-        // Authority
-        final String authority = taxon.get(TAX_AUTHORITY).replace("&amp;", "&").trim();
-        assert (!Strings.isNullOrEmpty(authority));
-
-        // I wanted citations like
-        // "Blanc, J. 2008. Loxodonta africana. The IUCN Red List of Threatened Species 2008: e.T12392A3339343. https://dx.doi.org/10.2305/IUCN.UK.2008.RLTS.T12392A3339343.en. Downloaded on 15 January 2021."
-        // which is visible on https://www.iucnredlist.org/species/12392/3339343, but they are not available through
-        // a download, and it would be too many requests to use the API for this (and IUCN have been very reluctant
-        // about using the API.)
-        //
-        // For the moment, we will just use the DOI.
-        //String reference = null;
-        //for (List<String> ref : referencesMap.get(taxonKey)) {
-        //  reference = ref.get(REF_CITATION);
-        //}
-        //assert (!Strings.isNullOrEmpty(reference));
-
-        String citationAuthor = null;
-        for (List<String> credit : creditsMap.get(taxonKey)) {
-          if ("RedListAssessors".equals(credit.get(CRE_TYPE))) {
-            citationAuthor = credit.get(CRE_TEXT);
-            if (Strings.isNullOrEmpty(citationAuthor)) {
-              citationAuthor = credit.get(CRE_FULL);
-            }
+    } finally {
+      exec.shutdownNow();
+      // preparations still running finish their current step, their tables are removed below too
+      try {
+        while (!exec.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOG.info("Waiting for the preparation of IUCN downloads to stop");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      // remove the sorted tables of downloads never converted because of an error
+      for (Future<SortedTables> f : prepared.subList(converted, prepared.size())) {
+        if (f.isDone() && !f.isCancelled()) {
+          try {
+            f.get().close();
+          } catch (Exception e) {
+            // failed downloads have nothing to clean up
           }
         }
-        assert (!Strings.isNullOrEmpty(citationAuthor));
+      }
+    }
+  }
+
+  /**
+   * The tables read from each download with the columns kept and the key they are sorted by.
+   */
+  private enum Table {
+    TAXONOMY("taxonomy.csv", TAX_COLUMNS, TAX_TAXON_ID, null),
+    ASSESSMENTS("assessments.csv", ASS_COLUMNS, ASS_INTERNAL_TAXON_ID, null),
+    COMMON_NAMES("common_names.csv", COM_COLUMNS, COM_INTERNAL_TAXON_ID, null),
+    DOIS("dois.csv", DOI_COLUMNS, DOI_INTERNAL_TAXON_ID, null),
+    CREDITS("credits.csv", CRE_COLUMNS, CRE_INTERNAL_TAXON_ID, null),
+    SYNONYMS("synonyms.csv", SYN_COLUMNS, SYN_INTERNAL_TAXON_ID, SYNONYM_ORDER);
+
+    private final String file;
+    private final Projection columns;
+    private final int keyColumn;
+    private final Comparator<List<String>> order;
+
+    Table(String file, Projection columns, int keyColumn, Comparator<List<String>> order) {
+      this.file = file;
+      this.columns = columns;
+      this.keyColumn = keyColumn;
+      this.order = order;
+    }
+  }
 
-        String citationYear = null;
-        for (List<String> assessment : assessmentsMap.get(taxonKey)) {
-          citationYear = assessment.get(ASS_YEAR_PUBLISHED);
+  /**
+   * Downloads a single IUCN download and sorts its tables, reading them straight from the zip.
+   * With a download cache the sorted tables are persisted next to it, so later builds of the same release
+   * map them into memory instead of parsing the download again.
+   */
+  private SortedTables prepare(String url, long sortBuffer) throws Exception {
+    final File index = indexDir(url);
+    if (index != null && index.exists()) {
+      LOG.info("Use indexed tables of {} at {}", url, index);
+      return open(index);
+    }
+    final File zip = File.createTempFile("iucn", ".zip");
+    try {
+      LOG.info("Downloading {}", url);
+      http.download(url, zip);
+      try (TableSource source = TableSource.zip(zip)) {
+        SortedTables tables = sort(source, sortBuffer);
+        LOG.info("Sorted tables of {}", url);
+        if (index == null) {
+          return tables;
+        }
+        try (SortedTables sorted = tables) {
+          writeIndex(sorted, index);
         }
-        assert (!Strings.isNullOrEmpty(citationYear));
+      }
+    } finally {
+      // sorted tables are kept in memory, their own spill directory or the index
+      FileUtils.deleteQuietly(zip);
+    }
+    return open(index);
+  }
 
-        String citationScientificName = taxon.get(TAX_SCIENTIFIC_NAME) + ' ' + authority;
+  /**
+   * @return the directory of the persisted tables of the current release of a download
+   *   or null if downloads are not cached
+   */
+  private File indexDir(String url) throws Exception {
+    String hash = http.contentHash(url);
+    if (hash == null) {
+      return null;
+    }
+    // the columns kept are part of the key, so changing the mapping rebuilds the index
+    Hasher layout = Hashing.sha256().newHasher().putInt(INDEX_FORMAT);
+    for (Table t : Table.values()) {
+      layout.putString(t.file + t.columns, StandardCharsets.UTF_8);
+    }
+    return new File(http.getCache().derivedDir(URI.create(url)), hash.substring(0, 16) + "-" + layout.hash().toString().substring(0, 8));
+  }
 
-        String citationDoi = null;
-        for (List<String> doi : doisMap.get(taxonKey)) {
-          citationDoi = DX_DOI.matcher(doi.get(DOI_DOI)).replaceAll("https://doi.org/");
+  /**
+   * Persists sorted tables as memory mapped row stores, replacing the indexes of older releases.
+   */
+  private static void writeIndex(SortedTables tables, File index) throws IOException {
+    File parent = index.getParentFile();
+    FileUtils.forceMkdir(parent);
+    File tmp = java.nio.file.Files.createTempDirectory(parent.toPath(), "tmp").toFile();
+    try {
+      for (Table t : Table.values()) {
+        MappedRowStore.write(tmp, t.name(), tables.get(t), t.keyColumn);
+      }
+      for (File old : parent.listFiles()) {
+        if (!old.equals(tmp)) {
+          FileUtils.deleteQuietly(old);
         }
-        assert (!Strings.isNullOrEmpty(citationDoi));
+      }
+      java.nio.file.Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("Indexed tables at {}", index);
+    } finally {
+      FileUtils.deleteQuietly(tmp);
+    }
+  }
 
-        String citation = String.format("%s %s. %s. The IUCN Red List of Threatened Species %s: %s", citationAuthor, citationYear, citationScientificName, citationYear, citationDoi);
+  private static SortedTables open(File index) throws IOException {
+    SortedTables tables = new SortedTables(null);
+    for (Table t : Table.values()) {
+      MappedRowStore store = MappedRowStore.open(index, t.name());
+      tables.put(t, SortedRows.of(store.iterator(), t.keyColumn));
+    }
+    return tables;
+  }
 
-        // Calculate rank
-        String rank = "species";
-        if (!Strings.isNullOrEmpty(taxon.get(TAX_INFRA_TYPE))) {
-          rank = taxon.get(TAX_INFRA_TYPE);
-        }
-        assert(!Strings.isNullOrEmpty(rank));
-
-        writer.newRecord(taxonKey);
-        writer.addCoreColumn(DwcTerm.scientificName, taxon.get(TAX_SCIENTIFIC_NAME) + ' ' + authority);
-        writer.addCoreColumn(DwcTerm.kingdom, taxon.get(TAX_KINGDOM_NAME));
-        writer.addCoreColumn(DwcTerm.phylum, taxon.get(TAX_PHYLUM_NAME));
-        writer.addCoreColumn(DwcTerm.class_, taxon.get(TAX_CLASS_NAME));
-        writer.addCoreColumn(DwcTerm.order, taxon.get(TAX_ORDER_NAME));
-        writer.addCoreColumn(DwcTerm.family, taxon.get(TAX_FAMILY_NAME));
-        writer.addCoreColumn(DwcTerm.genus, taxon.get(TAX_GENUS_NAME));
-        writer.addCoreColumn(DwcTerm.specificEpithet, taxon.get(TAX_SPECIES_NAME));
-        writer.addCoreColumn(DwcTerm.scientificNameAuthorship, authority);
-        writer.addCoreColumn(DwcTerm.taxonRank, rank);
-        writer.addCoreColumn(DwcTerm.infraspecificEpithet, taxon.get(TAX_INFRA_NAME));
-        writer.addCoreColumn(DwcTerm.taxonomicStatus, TaxonomicStatus.ACCEPTED);
-        writer.addCoreColumn(DwcTerm.acceptedNameUsageID, taxonKey);
-        writer.addCoreColumn(DcTerm.bibliographicCitation, citation);
+  /**
+   * Converts the unzipped tables of a single IUCN download into Darwin Core records.
+   *
+   * @return the number of accepted taxa written
+   */
+  @VisibleForTesting
+  int parseDownload(List<File> files) throws Exception {
+    return parseDownload(files, cfg.sortBufferMb * MB);
+  }
 
-        String assessmentId = null;
-
-        for (List<String> assessment : assessmentsMap.get(taxonKey)) {
-          assessmentId = assessment.get(ASS_ASSESSMENT_ID);
-
-          Map<Term, String> globalDistribution = new HashMap<>();
-          globalDistribution.put(DwcTerm.locality, "Global");
-          globalDistribution.put(IucnTerm.threatStatus, assessment.get(ASS_REDLIST_CATEGORY).replace("Lower Risk/", ""));
-          // What about criteria? Population trend?
-          switch (assessment.get(ASS_REDLIST_CATEGORY)) {
-            case "Extinct":
-            case "Extinct in the Wild":
-              globalDistribution.put(DwcTerm.occurrenceStatus, "Absent");
-              break;
-
-            case "Critically Endangered":
-            case "Endangered":
-            case "Vulnerable":
-            case "Near Threatened":
-            case "Data Deficient":
-            case "Least Concern":
-            case "Lower Risk/conservation dependent":
-            case "Lower Risk/near threatened":
-            case "Lower Risk/least concern":
-              globalDistribution.put(DwcTerm.occurrenceStatus, "Present");
-              break;
-
-            case "Not Evaluated": // Not used.
-            case "Unknown":
-              globalDistribution.put(DwcTerm.occurrenceStatus, "Unknown");
-              break;
-
-            default:
-              throw new Exception("Unknown assessment category " + assessment.get(ASS_REDLIST_CATEGORY) + " on " + taxonKey);
-          }
-          globalDistribution.put(DwcTerm.countryCode, null);
-          globalDistribution.put(DwcTerm.establishmentMeans, null);
-          globalDistribution.put(DcTerm.source, citation);
-          writer.addExtensionRecord(GbifTerm.Distribution, globalDistribution);
-        }
-        writer.addCoreColumn(DcTerm.references, "https://www.iucnredlist.org/species/" + taxonKey + "/" + assessmentId);
+  /**
+   * @param sortBuffer bytes all tables may keep in memory together, tiny in tests to spill sorted runs
+   */
+  @VisibleForTesting
+  int parseDownload(List<File> files, long sortBuffer) throws Exception {
+    try (TableSource source = TableSource.of(files);
+         SortedTables tables = sort(source, sortBuffer)) {
+      return convert(tables);
+    }
+  }
+
+  /**
+   * The taxonomy and side tables of one download, sorted by taxon key so they can be merge joined
+   * and only the rows of the current taxon are held in memory.
+   */
+  private static class SortedTables implements Closeable {
+    private final File dir;
+    private final Map<Table, SortedRows> tables = new EnumMap<>(Table.class);
+
+    /**
+     * @param dir temporary directory to remove when closed, if any
+     */
+    SortedTables(File dir) {
+      this.dir = dir;
+    }
+
+    private void put(Table table, SortedRows rows) {
+      tables.put(table, rows);
+    }
+
+    private SortedRows get(Table table) {
+      return tables.get(table);
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (SortedRows rows : tables.values()) {
+        rows.close();
+      }
+      tables.clear();
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  /**
+   * Sorts all tables of a download with one share of the buffer per table,
+   * as every table fitting into its share stays in memory until the download is converted.
+   *
+   * @param sortBuffer bytes all tables of the download may keep in memory together
+   */
+  private SortedTables sort(TableSource files, long sortBuffer) throws Exception {
+    // The simple_summary.csv file was probably sufficient, but isn't used.
+    // Optional<File> simple_summary = files.stream().filter(f -> f.getName().equals("simple_summary.csv")).findFirst();
+
+    File dir = java.nio.file.Files.createTempDirectory("iucn-sort").toFile();
+    SortedTables t = new SortedTables(dir);
+    try {
+      ExternalSort sorter = new ExternalSort(dir, sortBuffer / Table.values().length);
+      for (Table table : Table.values()) {
+        t.put(table, sort(sorter, files, table));
+      }
+      return t;
+    } catch (Exception e) {
+      t.close();
+      throw e;
+    }
+  }
 
-        for (List<String> commonName : commonNamesMap.get(taxonKey)) {
-          Map<Term, String> vernacularName = new HashMap<>();
+  /**
+   * Sorts a single table. Repeated values are shared through a dictionary that only lives while the table is read,
+   * the pooled instances stay with the sorted rows.
+   */
+  private static SortedRows sort(ExternalSort sorter, TableSource files, Table table) throws Exception {
+    StringPool pool = new StringPool(table.file);
+    SortedRows rows = sorter.sort(reader(files, table.file, table.columns, pool), table.keyColumn, table.order);
+    pool.report();
+    return rows;
+  }
+
+  private int convert(SortedTables tables) throws Exception {
+    ExtensionRow distribution = extensionRow(GbifTerm.Distribution, DwcTerm.locality, IucnTerm.threatStatus,
+      DwcTerm.occurrenceStatus, DwcTerm.countryCode, DwcTerm.establishmentMeans, DcTerm.source);
+    ExtensionRow vernacularName = extensionRow(GbifTerm.VernacularName, DcTerm.language, DwcTerm.vernacularName, GbifTerm.isPreferredName);
 
-          String language = commonName.get(COM_LANGUAGE);
-          ParseResult<Language> parsedLanguage = LanguageParser.getInstance().parse(language);
-          if (parsedLanguage.isSuccessful()) {
-            vernacularName.put(DcTerm.language, parsedLanguage.getPayload().getIso3LetterCode());
-          } else {
-            vernacularName.put(DcTerm.language, language);
+    final SortedRows taxa = tables.get(Table.TAXONOMY);
+    int count = 0;
+    while (taxa.hasNext()) {
+      List<String> taxon = taxa.next();
+      final String taxonKey = taxon.get(TAX_TAXON_ID);
+
+      // Skip subpopulation assessments, in case these have been included in the download
+      if (!Strings.isNullOrEmpty(taxon.get(TAX_SUBPOPULATION_NAME))) {
+        LOG.info("Skipping {}, which is a subpopulation taxon", taxonKey);
+        continue;
+      }
+
+      // The rows joined from all side tables
+      List<List<String>> assessments = tables.get(Table.ASSESSMENTS).group(taxonKey);
+      List<List<String>> commonNames = tables.get(Table.COMMON_NAMES).group(taxonKey);
+      List<List<String>> dois = tables.get(Table.DOIS).group(taxonKey);
+      List<List<String>> credits = tables.get(Table.CREDITS).group(taxonKey);
+      Set<List<String>> synonyms = new TreeSet<>(SYNONYM_ORDER);
+      synonyms.addAll(tables.get(Table.SYNONYMS).group(taxonKey));
+
+      // Authority
+      final String authority = taxon.get(TAX_AUTHORITY).replace("&amp;", "&").trim();
+      assert (!Strings.isNullOrEmpty(authority));
+
+      // I wanted citations like
+      // "Blanc, J. 2008. Loxodonta africana. The IUCN Red List of Threatened Species 2008: e.T12392A3339343. https://dx.doi.org/10.2305/IUCN.UK.2008.RLTS.T12392A3339343.en. Downloaded on 15 January 2021."
+      // which is visible on https://www.iucnredlist.org/species/12392/3339343, but they are not available through
+      // a download, and it would be too many requests to use the API for this (and IUCN have been very reluctant
+      // about using the API.)
+      //
+      // For the moment, we will just use the DOI, and references.csv is not read.
+      //String reference = null;
+      //for (List<String> ref : references) {
+      //  reference = ref.get(REF_CITATION);
+      //}
+      //assert (!Strings.isNullOrEmpty(reference));
+
+      String citationAuthor = null;
+      for (List<String> credit : credits) {
+        if ("RedListAssessors".equals(credit.get(CRE_TYPE))) {
+          citationAuthor = credit.get(CRE_TEXT);
+          if (Strings.isNullOrEmpty(citationAuthor)) {
+            citationAuthor = credit.get(CRE_FULL);
           }
-          vernacularName.put(DwcTerm.vernacularName, commonName.get(COM_NAME));
-          vernacularName.put(GbifTerm.isPreferredName, commonName.get(COM_MAIN));
-          writer.addExtensionRecord(GbifTerm.VernacularName, vernacularName);
         }
+      }
+      assert (!Strings.isNullOrEmpty(citationAuthor));
+
+      String citationYear = null;
+      for (List<String> assessment : assessments) {
+        citationYear = assessment.get(ASS_YEAR_PUBLISHED);
+      }
+      assert (!Strings.isNullOrEmpty(citationYear));
 
-        // Synonyms make new records, so they must be last.
-        int synonym_index = 0;
-        for (List<String> synonym : synonymsMap.get(taxonKey)) {
-          synonym_index++;
-
-          String synonymName = synonym.get(SYN_NAME).replace("&amp;", "&");
-          String synonymAuthority = synonym.get(SYN_SPECIES_AUTHOR).replace("&amp;", "&");
-
-          writer.newRecord(taxonKey + "_" + synonym_index);
-          writer.addCoreColumn(DwcTerm.scientificName, synonymName);
-          writer.addCoreColumn(DwcTerm.kingdom, taxon.get(TAX_KINGDOM_NAME)); // Assume synonym is same kingdom as accepted name
-          writer.addCoreColumn(DwcTerm.scientificNameAuthorship, synonymAuthority);
-          writer.addCoreColumn(DwcTerm.taxonomicStatus, TaxonomicStatus.SYNONYM);
-          writer.addCoreColumn(DwcTerm.acceptedNameUsageID, taxonKey);
-          writer.addCoreColumn(DcTerm.bibliographicCitation, citation);
-          writer.addCoreColumn(DcTerm.references, "https://www.iucnredlist.org/species/" + taxonKey + "/" + assessmentId);
+      String citationScientificName = taxon.get(TAX_SCIENTIFIC_NAME) + ' ' + authority;
+
+      String citationDoi = null;
+      for (List<String> doi : dois) {
+        citationDoi = DX_DOI.matcher(doi.get(DOI_DOI)).replaceAll("https://doi.org/");
+      }
+      assert (!Strings.isNullOrEmpty(citationDoi));
+
+      String citation = String.format("%s %s. %s. The IUCN Red List of Threatened Species %s: %s", citationAuthor, citationYear, citationScientificName, citationYear, citationDoi);
+
+      // Calculate rank
+      String rank = StringUtils.trimToNull(taxon.get(TAX_INFRA_TYPE));
+      if (rank == null) {
+        rank = "species";
+      }
+      assert(!Strings.isNullOrEmpty(rank));
+
+      writer.newRecord(taxonKey);
+      writer.addCoreColumn(DwcTerm.scientificName, taxon.get(TAX_SCIENTIFIC_NAME) + ' ' + authority);
+      writer.addCoreColumn(DwcTerm.kingdom, taxon.get(TAX_KINGDOM_NAME));
+      writer.addCoreColumn(DwcTerm.phylum, taxon.get(TAX_PHYLUM_NAME));
+      writer.addCoreColumn(DwcTerm.class_, taxon.get(TAX_CLASS_NAME));
+      writer.addCoreColumn(DwcTerm.order, taxon.get(TAX_ORDER_NAME));
+      writer.addCoreColumn(DwcTerm.family, taxon.get(TAX_FAMILY_NAME));
+      writer.addCoreColumn(DwcTerm.genus, taxon.get(TAX_GENUS_NAME));
+      writer.addCoreColumn(DwcTerm.specificEpithet, taxon.get(TAX_SPECIES_NAME));
+      writer.addCoreColumn(DwcTerm.scientificNameAuthorship, authority);
+      writer.addCoreColumn(DwcTerm.taxonRank, rank);
+      writer.addCoreColumn(DwcTerm.infraspecificEpithet, taxon.get(TAX_INFRA_NAME));
+      writer.addCoreColumn(DwcTerm.taxonomicStatus, TaxonomicStatus.ACCEPTED);
+      writer.addCoreColumn(DwcTerm.acceptedNameUsageID, taxonKey);
+      writer.addCoreColumn(DcTerm.bibliographicCitation, citation);
+
+      String assessmentId = null;
+
+      for (List<String> assessment : assessments) {
+        assessmentId = assessment.get(ASS_ASSESSMENT_ID);
+
+        distribution.set(DwcTerm.locality, "Global");
+        distribution.set(IucnTerm.threatStatus, THREAT_STATUS.normalize(assessment.get(ASS_REDLIST_CATEGORY)));
+        // What about criteria? Population trend?
+        switch (assessment.get(ASS_REDLIST_CATEGORY)) {
+          case "Extinct":
+          case "Extinct in the Wild":
+            distribution.set(DwcTerm.occurrenceStatus, "Absent");
+            break;
+
+          case "Critically Endangered":
+          case "Endangered":
+          case "Vulnerable":
+          case "Near Threatened":
+          case "Data Deficient":
+          case "Least Concern":
+          case "Lower Risk/conservation dependent":
+          case "Lower Risk/near threatened":
+          case "Lower Risk/least concern":
+            distribution.set(DwcTerm.occurrenceStatus, "Present");
+            break;
+
+          case "Not Evaluated": // Not used.
+          case "Unknown":
+            distribution.set(DwcTerm.occurrenceStatus, "Unknown");
+            break;
+
+          default:
+            throw new Exception("Unknown assessment category " + assessment.get(ASS_REDLIST_CATEGORY) + " on " + taxonKey);
         }
+        distribution.set(DcTerm.source, citation);
+        distribution.write();
+      }
+      writer.addCoreColumn(DcTerm.references, "https://www.iucnredlist.org/species/" + taxonKey + "/" + assessmentId);
+
+      for (List<String> commonName : commonNames) {
+        String language = commonName.get(COM_LANGUAGE);
+        Language parsedLanguage = Normalizers.LANGUAGE.normalize(language);
+        if (parsedLanguage != null) {
+          vernacularName.set(DcTerm.language, parsedLanguage.getIso3LetterCode());
+        } else {
+          vernacularName.set(DcTerm.language, language);
+        }
+        vernacularName.set(DwcTerm.vernacularName, commonName.get(COM_NAME));
+        vernacularName.set(GbifTerm.isPreferredName, commonName.get(COM_MAIN));
+        vernacularName.write();
+      }
+
+      // Synonyms make new records, so they must be last.
+      int synonym_index = 0;
+      for (List<String> synonym : synonyms) {
+        synonym_index++;
 
-        LOG.info("  Taxon {} ({}) with {} synonyms completed.", taxonKey, taxon.get(TAX_SCIENTIFIC_NAME), synonym_index);
+        String synonymName = synonym.get(SYN_NAME).replace("&amp;", "&");
+        String synonymAuthority = synonym.get(SYN_SPECIES_AUTHOR).replace("&amp;", "&");
 
-        count++;
+        writer.newRecord(taxonKey + "_" + synonym_index);
+        writer.addCoreColumn(DwcTerm.scientificName, synonymName);
+        writer.addCoreColumn(DwcTerm.kingdom, taxon.get(TAX_KINGDOM_NAME)); // Assume synonym is same kingdom as accepted name
+        writer.addCoreColumn(DwcTerm.scientificNameAuthorship, synonymAuthority);
+        writer.addCoreColumn(DwcTerm.taxonomicStatus, TaxonomicStatus.SYNONYM);
+        writer.addCoreColumn(DwcTerm.acceptedNameUsageID, taxonKey);
+        writer.addCoreColumn(DcTerm.bibliographicCitation, citation);
+        writer.addCoreColumn(DcTerm.references, "https://www.iucnredlist.org/species/" + taxonKey + "/" + assessmentId);
       }
 
+      LOG.info("  Taxon {} ({}) with {} synonyms completed.", taxonKey, taxon.get(TAX_SCIENTIFIC_NAME), synonym_index);
+
+      count++;
     }
-    if (count == EXPECTED_TOTAL) {
-      LOG.info("Processed {} taxa (as expected) from the IUCN downloads", count);
-    } else {
-      LOG.error("TOTAL DOES NOT MATCH: processed {} taxa from the IUCN downloads, but expected {}", count, EXPECTED_TOTAL);
-    }
+    return count;
   }
 
   private String getCitation() {
@@ -462,31 +701,11 @@ public class ArchiveBuilder extends AbstractBuilder {
       .replace("{DL_DATE}", LocalDate.now(ZoneOffset.UTC).toString());
   }
 
-  // Index a CSV file by a column.
-  private Multimap<String, List<String>> indexByColumn(File source, int indexColumn, Multimap<String, List<String>> map) throws IOException, ParseException {
-    TabularDataFileReader<List<String>> reader = TabularFiles.newTabularFileReader(
-      new InputStreamReader(new FileInputStream(source), "UTF-8"),
+  private static TabularDataFileReader<List<String>> reader(TableSource files, String name, Projection columns, StringPool pool) throws IOException {
+    return columns.wrap(TabularFiles.newTabularFileReader(
+      new InputStreamReader(files.open(name), "UTF-8"),
       ',', "\n", '"', true
-    );
-
-    List<String> row;
-    while ((row = reader.read()) != null) {
-      map.put(row.get(indexColumn), row);
-    }
-
-    return map;
-  }
-
-  // Index a CSV file by a column.
-  private Multimap<String, List<String>> indexByColumn(File source, int indexColumn) throws IOException, ParseException {
-    Multimap<String, List<String>> map = HashMultimap.create();
-    return indexByColumn(source, indexColumn, map);
-  }
-
-  // Index a CSV file by a column, sorted using the comparator
-  private Multimap<String, List<String>> indexByColumn(File source, int indexColumn, Comparator<List<String>> comparator) throws IOException, ParseException {
-    Multimap<String, List<String>> map = MultimapBuilder.hashKeys().treeSetValues(comparator).build();
-    return indexByColumn(source, indexColumn, map);
+    ), pool);
   }
 
   @Override
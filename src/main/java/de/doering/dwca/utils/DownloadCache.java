@@ -0,0 +1,220 @@
+package de.doering.dwca.utils;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Striped;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A persistent on disk cache of downloaded files together with their HTTP validators (ETag, Last-Modified)
+ * so they can be revalidated with conditional requests.
+ * Each url is stored as a data file named by the SHA-256 of the url plus a properties file with the validators.
+ * Entries not used for a while can be evicted.
+ */
+public class DownloadCache {
+  private static final String URL = "url";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String SHA256 = "sha256";
+  private static final String META_SUFFIX = ".properties";
+  private static final String PARTS_SUFFIX = ".parts";
+  private static final String DERIVED_SUFFIX = ".derived";
+  // shared by all instances as several builders might use the same cache directory concurrently
+  private static final Striped<Lock> LOCKS = Striped.lock(64);
+
+  private final File dir;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicLong bytesCached = new AtomicLong();
+  private final AtomicLong bytesDownloaded = new AtomicLong();
+
+  public static class Entry {
+    public final File file;
+    public final String etag;
+    public final String lastModified;
+    public final String sha256;
+
+    Entry(File file, String etag, String lastModified, String sha256) {
+      this.file = file;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.sha256 = sha256;
+    }
+  }
+
+  public DownloadCache(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @return the lock guarding the cache entry of the given url, also across instances
+   */
+  public Lock lock(URI url) {
+    return LOCKS.get(key(url));
+  }
+
+  private String key(URI url) {
+    return Hashing.sha256().hashString(url.toString(), StandardCharsets.UTF_8).toString();
+  }
+
+  private File dataFile(URI url) {
+    return new File(dir, key(url));
+  }
+
+  private File metaFile(URI url) {
+    return new File(dir, key(url) + META_SUFFIX);
+  }
+
+  /**
+   * @return the cached entry for the url or null if it was never cached
+   */
+  public Entry get(URI url) throws IOException {
+    File meta = metaFile(url);
+    File data = dataFile(url);
+    if (!meta.exists() || !data.exists()) {
+      return null;
+    }
+    Properties props = new Properties();
+    try (InputStream in = new FileInputStream(meta)) {
+      props.load(in);
+    }
+    String sha256 = props.getProperty(SHA256);
+    if (sha256 == null) {
+      sha256 = sha256(data);
+    }
+    return new Entry(data, props.getProperty(ETAG), props.getProperty(LAST_MODIFIED), sha256);
+  }
+
+  /**
+   * Records a cache hit, i.e. the cached entry is still valid.
+   */
+  public Entry hit(Entry entry) {
+    hits.incrementAndGet();
+    // the modification time tracks the last use for evict
+    entry.file.setLastModified(System.currentTimeMillis());
+    bytesCached.addAndGet(entry.file.length());
+    return entry;
+  }
+
+  /**
+   * Replaces the cached data and validators of an url.
+   *
+   * @param tmp the freshly downloaded file which gets moved into the cache
+   */
+  public Entry put(URI url, File tmp, String etag, String lastModified) throws IOException {
+    misses.incrementAndGet();
+    bytesDownloaded.addAndGet(tmp.length());
+    File data = dataFile(url);
+    String sha256 = sha256(tmp);
+    Files.move(tmp.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    // downloads may carry the server's Last-Modified as their modification time, but evict needs the last use
+    data.setLastModified(System.currentTimeMillis());
+
+    Properties props = new Properties();
+    props.setProperty(URL, url.toString());
+    if (etag != null) {
+      props.setProperty(ETAG, etag);
+    }
+    if (lastModified != null) {
+      props.setProperty(LAST_MODIFIED, lastModified);
+    }
+    props.setProperty(SHA256, sha256);
+    try (OutputStream out = new FileOutputStream(metaFile(url))) {
+      props.store(out, null);
+    }
+    return new Entry(data, etag, lastModified, sha256);
+  }
+
+  /**
+   * Removes all entries, including their parts and derived data, that have not been used for longer than maxAge.
+   *
+   * @return the number of entries removed
+   */
+  public int evict(Duration maxAge) {
+    File[] metas = dir.listFiles((d, name) -> name.endsWith(META_SUFFIX));
+    if (metas == null) {
+      return 0;
+    }
+    long oldest = System.currentTimeMillis() - maxAge.toMillis();
+    int evicted = 0;
+    for (File meta : metas) {
+      String key = meta.getName().substring(0, meta.getName().length() - META_SUFFIX.length());
+      Lock lock = LOCKS.get(key);
+      lock.lock();
+      try {
+        File data = new File(dir, key);
+        if (!data.exists() || data.lastModified() < oldest) {
+          FileUtils.deleteQuietly(data);
+          FileUtils.deleteQuietly(meta);
+          FileUtils.deleteQuietly(new File(dir, key + PARTS_SUFFIX));
+          FileUtils.deleteQuietly(new File(dir, key + DERIVED_SUFFIX));
+          evicted++;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return evicted;
+  }
+
+  private static String sha256(File f) throws IOException {
+    return MoreFiles.asByteSource(f.toPath()).hash(Hashing.sha256()).toString();
+  }
+
+  /**
+   * @return the directory to keep parts of a segmented download of the url in, so it can be resumed
+   */
+  public File partsDir(URI url) {
+    return new File(dir, key(url) + PARTS_SUFFIX);
+  }
+
+  /**
+   * @return the directory to keep data derived from the cached content of the url in, like indexes of its tables
+   */
+  public File derivedDir(URI url) {
+    return new File(dir, key(url) + DERIVED_SUFFIX);
+  }
+
+  /**
+   * @return a new temporary file inside the cache directory, so it can be moved atomically into the cache
+   */
+  public File newTmpFile() throws IOException {
+    FileUtils.forceMkdir(dir);
+    return File.createTempFile("download", ".tmp", dir);
+  }
+
+  public int getHits() {
+    return hits.get();
+  }
+
+  public int getMisses() {
+    return misses.get();
+  }
+
+  public long getBytesDownloaded() {
+    return bytesDownloaded.get();
+  }
+
+  public String report() {
+    return String.format("%d hits, %d misses, %s served from cache, %s downloaded",
+        hits.get(), misses.get(),
+        FileUtils.byteCountToDisplaySize(bytesCached.get()),
+        FileUtils.byteCountToDisplaySize(bytesDownloaded.get()));
+  }
+}
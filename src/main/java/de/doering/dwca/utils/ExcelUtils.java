@@ -4,6 +4,7 @@ import com.google.common.base.Strings;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,7 +12,7 @@ import java.util.regex.Pattern;
  *
  */
 public class ExcelUtils {
-  private final static Pattern HYPERLINK = Pattern.compile("HYPERLINK *\\( *\"(.+)\" *,", Pattern.CASE_INSENSITIVE);
+  final static Pattern HYPERLINK = Pattern.compile("HYPERLINK *\\( *\"(.+)\" *,", Pattern.CASE_INSENSITIVE);
 
     public static String col(Row row, int column) {
         Cell c = row.getCell(column);
@@ -33,6 +34,22 @@ public class ExcelUtils {
         return Strings.nullToEmpty(val.trim()).replace("Unassigned", "");
     }
 
+    public static String col(XlsxReader.Row row, int column) {
+        return decode(row.get(column));
+    }
+
+    private static String decode(String val) {
+        return val == null ? null : val.trim().replace("Unassigned", "");
+    }
+
+    /**
+     * @param columns the columns a builder reads
+     * @return a reusable view decoding the given columns of a row once
+     */
+    public static RowView view(int... columns) {
+        return new RowView(columns);
+    }
+
     /**
      * @return link URL or null if none exists
      */
@@ -51,4 +68,65 @@ public class ExcelUtils {
         }
         return null;
     }
+
+    /**
+     * @return link URL or null if none exists
+     */
+    public static String link(XlsxReader.Row row, int column) {
+        return row.link(column);
+    }
+
+    /**
+     * A reusable view on the declared columns of a row, decoded like col once when a row is read,
+     * so repeated access to a column costs an array lookup only. Not thread safe.
+     */
+    public static class RowView {
+        // column index to slot in the values, -1 if not declared
+        private final int[] slots;
+        private final int[] columns;
+        private final String[] values;
+        private int rowNum = -1;
+
+        private RowView(int[] columns) {
+            this.columns = columns.clone();
+            slots = new int[Arrays.stream(columns).max().orElse(-1) + 1];
+            Arrays.fill(slots, -1);
+            for (int i = 0; i < columns.length; i++) {
+                slots[columns[i]] = i;
+            }
+            values = new String[columns.length];
+        }
+
+        /**
+         * Decodes the declared columns of the row, replacing the values of the previous row.
+         */
+        public RowView read(XlsxReader.Row row) {
+            rowNum = row.getRowNum();
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = decode(row.get(columns[i]));
+            }
+            return this;
+        }
+
+        public int getRowNum() {
+            return rowNum;
+        }
+
+        /**
+         * @return the decoded value of a declared column
+         */
+        public String get(int column) {
+            if (column >= slots.length || slots[column] < 0) {
+                throw new IllegalArgumentException("Column " + column + " not declared");
+            }
+            return values[slots[column]];
+        }
+
+        /**
+         * @return true if the declared column is null or empty
+         */
+        public boolean isEmpty(int column) {
+            return Strings.isNullOrEmpty(get(column));
+        }
+    }
 }
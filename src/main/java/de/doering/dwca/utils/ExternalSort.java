@@ -0,0 +1,307 @@
+package de.doering.dwca.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.gbif.utils.file.tabular.TabularDataFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the rows of tabular files by a key column with bounded memory, so several tables sharing a key
+ * can be merge joined instead of being indexed in memory.
+ *
+ * Rows are buffered until the buffer size is reached, then sorted and spilled as a run to a temporary file.
+ * The runs are merged lazily, so iterating the sorted rows keeps only one row per run in memory.
+ * Tables fitting into the buffer are never written to disk.
+ */
+public class ExternalSort {
+  private static final Logger LOG = LoggerFactory.getLogger(ExternalSort.class);
+  private static final int BUFFER = 64 * 1024;
+  /**
+   * Orders numerical keys by value as long as they have no leading zeros, any other strings consistently.
+   */
+  public static final Comparator<String> KEY_ORDER = Comparator.nullsFirst(Comparator.comparingInt(String::length)
+      .thenComparing(Comparator.naturalOrder()));
+
+  private final File tmpDir;
+  private final long bufferBytes;
+  private int runs;
+
+  /**
+   * @param tmpDir existing directory to spill sorted runs to
+   * @param bufferBytes approximate heap size of the rows to buffer before spilling a run
+   */
+  public ExternalSort(File tmpDir, long bufferBytes) {
+    this.tmpDir = tmpDir;
+    this.bufferBytes = bufferBytes;
+  }
+
+  /**
+   * Sorts all rows by the key column, keeping the file order of rows with the same key.
+   * The reader is consumed and closed.
+   */
+  public SortedRows sort(TabularDataFileReader<List<String>> reader, int keyColumn) throws IOException, ParseException {
+    return sort(reader, keyColumn, null);
+  }
+
+  /**
+   * Sorts all rows by the key column and then by the given order.
+   * The reader is consumed and closed.
+   */
+  public SortedRows sort(TabularDataFileReader<List<String>> reader, int keyColumn, Comparator<List<String>> then) throws IOException, ParseException {
+    Comparator<List<String>> order = Comparator.comparing(r -> r.get(keyColumn), KEY_ORDER);
+    if (then != null) {
+      order = order.thenComparing(then);
+    }
+    List<File> files = new ArrayList<>();
+    List<List<String>> buffer = new ArrayList<>();
+    long size = 0;
+    try (TabularDataFileReader<List<String>> r = reader) {
+      List<String> row;
+      while ((row = r.read()) != null) {
+        buffer.add(row);
+        size += estimateSize(row);
+        if (size >= bufferBytes) {
+          files.add(spill(buffer, order));
+          buffer.clear();
+          size = 0;
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      buffer.sort(order);
+      return new SortedRows(buffer.iterator(), keyColumn, files);
+    }
+    if (!buffer.isEmpty()) {
+      files.add(spill(buffer, order));
+      buffer.clear();
+    }
+    LOG.debug("Merging {} sorted runs", files.size());
+    return new SortedRows(new Merger(files, order), keyColumn, files);
+  }
+
+  private static long estimateSize(List<String> row) {
+    // list, array and string headers plus two bytes per char
+    long size = 56 + 8L * row.size();
+    for (String s : row) {
+      if (s != null) {
+        size += 40 + 2L * s.length();
+      }
+    }
+    return size;
+  }
+
+  private File spill(List<List<String>> rows, Comparator<List<String>> order) throws IOException {
+    rows.sort(order);
+    File f = new File(tmpDir, "run-" + runs++ + ".bin");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), BUFFER))) {
+      for (List<String> row : rows) {
+        writeRow(out, row);
+      }
+    }
+    return f;
+  }
+
+  /**
+   * Writes a row as the number of values followed by the length and UTF-8 bytes of each value, -1 for nulls.
+   * Also used by MappedRowStore.
+   */
+  static void writeRow(DataOutputStream out, List<String> row) throws IOException {
+    out.writeInt(row.size());
+    for (String s : row) {
+      if (s == null) {
+        out.writeInt(-1);
+      } else {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static class Run implements Closeable {
+    final int idx;
+    final DataInputStream in;
+    List<String> head;
+
+    Run(int idx, File f) throws IOException {
+      this.idx = idx;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), BUFFER));
+    }
+
+    /**
+     * @return true if a next row was read into head
+     */
+    boolean advance() throws IOException {
+      int cols;
+      try {
+        cols = in.readInt();
+      } catch (EOFException e) {
+        head = null;
+        return false;
+      }
+      List<String> row = new ArrayList<>(cols);
+      for (int i = 0; i < cols; i++) {
+        int len = in.readInt();
+        if (len < 0) {
+          row.add(null);
+        } else {
+          byte[] bytes = new byte[len];
+          in.readFully(bytes);
+          row.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+      }
+      head = row;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * K-way merge of sorted runs. Ties are broken by the run index, which keeps the sort stable.
+   */
+  private static class Merger implements Iterator<List<String>>, Closeable {
+    private final PriorityQueue<Run> queue;
+    private final List<Run> runs = new ArrayList<>();
+
+    Merger(List<File> files, Comparator<List<String>> order) throws IOException {
+      queue = new PriorityQueue<>(Math.max(1, files.size()), Comparator.<Run, List<String>>comparing(r -> r.head, order)
+          .thenComparingInt(r -> r.idx));
+      for (File f : files) {
+        Run run = new Run(runs.size(), f);
+        runs.add(run);
+        if (run.advance()) {
+          queue.add(run);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public List<String> next() {
+      Run run = queue.poll();
+      if (run == null) {
+        throw new NoSuchElementException();
+      }
+      List<String> row = run.head;
+      try {
+        if (run.advance()) {
+          queue.add(run);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Run run : runs) {
+        run.close();
+      }
+    }
+  }
+
+  /**
+   * Rows sorted by their key column which can be merge joined with another stream sorted by the same key.
+   * Closing it removes the spilled runs.
+   */
+  public static class SortedRows implements Iterator<List<String>>, Closeable {
+    private final Iterator<List<String>> iter;
+    private final int keyColumn;
+    private final List<File> files;
+    private List<String> head;
+
+    private SortedRows(Iterator<List<String>> iter, int keyColumn, List<File> files) {
+      this.iter = iter;
+      this.keyColumn = keyColumn;
+      this.files = files;
+    }
+
+    /**
+     * Wraps rows which are already sorted by their key column in KEY_ORDER.
+     */
+    public static SortedRows of(Iterator<List<String>> sorted, int keyColumn) {
+      return new SortedRows(sorted, keyColumn, new ArrayList<>());
+    }
+
+    @Override
+    public boolean hasNext() {
+      return head != null || iter.hasNext();
+    }
+
+    @Override
+    public List<String> next() {
+      if (head != null) {
+        List<String> row = head;
+        head = null;
+        return row;
+      }
+      return iter.next();
+    }
+
+    private List<String> peek() {
+      if (head == null && iter.hasNext()) {
+        head = iter.next();
+      }
+      return head;
+    }
+
+    /**
+     * Returns all distinct rows with the given key, skipping rows with smaller keys.
+     * Keys must be requested in ascending KEY_ORDER.
+     */
+    public List<List<String>> group(String key) {
+      List<List<String>> group = new ArrayList<>(2);
+      List<String> row;
+      while ((row = peek()) != null) {
+        int cmp = KEY_ORDER.compare(row.get(keyColumn), key);
+        if (cmp > 0) {
+          break;
+        }
+        head = null;
+        if (cmp == 0 && !group.contains(row)) {
+          group.add(row);
+        }
+      }
+      return group;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (iter instanceof Closeable) {
+        ((Closeable) iter).close();
+      }
+      for (File f : files) {
+        FileUtils.deleteQuietly(f);
+      }
+    }
+  }
+}
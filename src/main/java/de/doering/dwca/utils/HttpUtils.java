@@ -4,20 +4,29 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import java.io.*;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  *
@@ -27,19 +36,60 @@ public class HttpUtils {
   private final HttpClient client;
   private final String username;
   private final String password;
+  private final DownloadCache cache;
+  private SegmentedDownload segmented;
+  private final AtomicLong bytesDownloaded = new AtomicLong();
   private static final String LAST_MODIFIED = "Last-Modified";
+  private static final String ETAG = "ETag";
   private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int MAX_PROBES_IN_FLIGHT = 8;
 
   static {
     MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
   }
 
   public HttpUtils(String username, String password) {
+    this(username, password, null);
+  }
+
+  /**
+   * @param cacheDir directory for a persistent download cache used by download and getStream, or null to not cache at all
+   */
+  public HttpUtils(String username, String password, @Nullable File cacheDir) {
     this.client = HttpClient.newBuilder()
         .followRedirects(HttpClient.Redirect.ALWAYS)
         .build();
     this.username = username;
     this.password = password;
+    this.cache = cacheDir == null ? null : new DownloadCache(cacheDir);
+  }
+
+  /**
+   * Enables concurrent downloads of large files in several HTTP byte ranges if the server supports it.
+   *
+   * @param segments maximum number of ranges to download concurrently, 1 to always use a single request
+   */
+  public void setDownloadSegments(int segments) {
+    segmented = segments > 1 ? new SegmentedDownload(this, segments) : null;
+  }
+
+  @VisibleForTesting
+  void setDownloadSegments(int segments, long minSegmentSize) {
+    segmented = new SegmentedDownload(this, segments, minSegmentSize);
+  }
+
+  /**
+   * @return the number of bytes downloaded by download and getStream, excluding responses served from the cache
+   */
+  public long getBytesDownloaded() {
+    return bytesDownloaded.get();
+  }
+
+  /**
+   * @return the download cache used or null if caching is disabled
+   */
+  public DownloadCache getCache() {
+    return cache;
   }
 
   public boolean exists(String url){
@@ -51,6 +101,76 @@ public class HttpUtils {
     }
   }
 
+  /**
+   * Asynchronously checks whether an url exists using a HEAD request.
+   */
+  public CompletableFuture<Boolean> existsAsync(String url) {
+    HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+        .method("HEAD", HttpRequest.BodyPublishers.noBody());
+    return sendAsync(req, HttpResponse.BodyHandlers.discarding())
+        .thenApply(resp -> resp.statusCode() >= 200 && resp.statusCode() < 300)
+        .exceptionally(e -> false);
+  }
+
+  /**
+   * Probes candidate urls with concurrent HEAD requests and returns the first existing one in the given order.
+   * Candidates are requested in order with at most 8 requests in flight,
+   * so nothing after a hit of high priority gets requested at all.
+   *
+   * @param candidates urls in order of priority, usually newest release first
+   * @return the first existing url or null if none exists
+   */
+  public String probe(List<String> candidates) {
+    List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < candidates.size(); i++) {
+        while (futures.size() < candidates.size() && futures.size() < i + MAX_PROBES_IN_FLIGHT) {
+          futures.add(existsAsync(candidates.get(futures.size())));
+        }
+        LOG.debug("Probe {}", candidates.get(i));
+        if (futures.get(i).join()) {
+          LOG.info("Found {}", candidates.get(i));
+          return candidates.get(i);
+        }
+      }
+      return null;
+
+    } finally {
+      futures.forEach(f -> f.cancel(true));
+    }
+  }
+
+  /**
+   * Checks a known url with a conditional HEAD request using the validators of an earlier response.
+   *
+   * @return the response, 304 if unchanged since the validators were issued
+   */
+  public HttpResponse<Void> revalidate(String url, @Nullable String etag, @Nullable String lastModified) throws Exception {
+    HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+        .method("HEAD", HttpRequest.BodyPublishers.noBody());
+    if (etag != null) {
+      req.header("If-None-Match", etag);
+    }
+    if (lastModified != null) {
+      req.header("If-Modified-Since", lastModified);
+    }
+    return sendUnchecked(req, HttpResponse.BodyHandlers.discarding());
+  }
+
+  /**
+   * @return the ETag validator of the response or null
+   */
+  public static String etag(HttpResponse<?> resp) {
+    return resp.headers().firstValue(ETAG).orElse(null);
+  }
+
+  /**
+   * @return the Last-Modified validator of the response or null
+   */
+  public static String lastModified(HttpResponse<?> resp) {
+    return resp.headers().firstValue(LAST_MODIFIED).orElse(null);
+  }
+
   public HttpResponse<InputStream> head(String url) throws Exception {
     HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
         .method("HEAD", HttpRequest.BodyPublishers.noBody());
@@ -69,7 +189,26 @@ public class HttpUtils {
     return getStream(URI.create(url));
   }
   public InputStream getStream(URI url) throws Exception {
-    return send(HttpRequest.newBuilder(url), HttpResponse.BodyHandlers.ofInputStream()).body();
+    if (cache != null) {
+      return new FileInputStream(cached(url).file);
+    }
+    return new ProxyInputStream(send(HttpRequest.newBuilder(url), HttpResponse.BodyHandlers.ofInputStream()).body()) {
+      @Override
+      protected void afterRead(int n) {
+        if (n > 0) {
+          bytesDownloaded.addAndGet(n);
+        }
+      }
+    };
+  }
+
+  /**
+   * Makes sure the latest version of the url is cached and returns a SHA-256 hash of its content.
+   *
+   * @return the hash or null if the download cache is disabled
+   */
+  public String contentHash(String url) throws Exception {
+    return cache == null ? null : cached(URI.create(url)).sha256;
   }
 
   public void download(String url, File downloadTo) throws Exception {
@@ -77,15 +216,101 @@ public class HttpUtils {
   }
 
   public void download(URI url, File downloadTo) throws Exception {
+    if (cache != null) {
+      copy(cached(url).file, downloadTo);
+      LOG.info("Copied cached {} to {}", url, downloadTo.getAbsolutePath());
+      return;
+    }
     // execute
-    send(HttpRequest.newBuilder(url), HttpResponse.BodyHandlers.ofFile(downloadTo.toPath()));
+    if (segmented == null || !segmented.download(url, downloadTo, new File(downloadTo.getPath() + ".parts"))) {
+      send(HttpRequest.newBuilder(url), HttpResponse.BodyHandlers.ofFile(downloadTo.toPath()));
+    }
+    bytesDownloaded.addAndGet(downloadTo.length());
     LOG.info("Downloaded {} to {}", url, downloadTo.getAbsolutePath());
   }
 
+  /**
+   * Copies the cached file, so changes to the downloaded file can never alter the cache entry.
+   */
+  private static void copy(File cached, File downloadTo) throws IOException {
+    Files.copy(cached.toPath(), downloadTo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Makes sure the cache holds the latest version of the given url.
+   * A cached copy is revalidated with a conditional request using its ETag or Last-Modified validators
+   * and only downloaded again if the server does not respond with 304 Not Modified.
+   */
+  private DownloadCache.Entry cached(URI url) throws Exception {
+    Lock lock = cache.lock(url);
+    lock.lock();
+    try {
+      DownloadCache.Entry entry = cache.get(url);
+      // large files are better fetched in concurrent, resumable ranges.
+      // Without a cached copy to revalidate ask before opening a GET that would be thrown away.
+      HttpResponse<?> resp = entry == null && segmented != null ? segmented.head(url) : null;
+      boolean segments = resp != null && segmented.accepts(resp);
+      HttpResponse<InputStream> get = null;
+      if (!segments) {
+        HttpRequest.Builder req = HttpRequest.newBuilder(url);
+        if (entry != null) {
+          if (entry.etag != null) {
+            req.header("If-None-Match", entry.etag);
+          }
+          if (entry.lastModified != null) {
+            req.header("If-Modified-Since", entry.lastModified);
+          }
+        }
+        get = sendUnchecked(req, HttpResponse.BodyHandlers.ofInputStream());
+        if (get.statusCode() == 304 && entry != null) {
+          get.body().close();
+          LOG.info("Use cached {}, not modified since {}", url, entry.lastModified);
+          return cache.hit(entry);
+        }
+        check(get, req);
+        resp = get;
+        if (entry != null && segmented != null && segmented.accepts(get)) {
+          // a changed file, the conditional GET already describes it
+          get.body().close();
+          segments = true;
+        }
+      }
+
+      File tmp = cache.newTmpFile();
+      try {
+        if (segments) {
+          segmented.download(url, resp, tmp, cache.partsDir(url));
+        } else {
+          saveToFile(get, tmp);
+        }
+        bytesDownloaded.addAndGet(tmp.length());
+        return cache.put(url, tmp, etag(resp), lastModified(resp));
+      } finally {
+        tmp.delete();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
   public <T> HttpResponse<T> send(HttpRequest.Builder req, HttpResponse.BodyHandler<T> bodyHandler) throws Exception {
+    return check(sendUnchecked(req, bodyHandler), req);
+  }
+
+  <T> HttpResponse<T> sendUnchecked(HttpRequest.Builder req, HttpResponse.BodyHandler<T> bodyHandler) throws Exception {
+    return client.send(prepare(req).build(), bodyHandler);
+  }
+
+  <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest.Builder req, HttpResponse.BodyHandler<T> bodyHandler) {
+    return client.sendAsync(prepare(req).build(), bodyHandler);
+  }
+
+  private HttpRequest.Builder prepare(HttpRequest.Builder req) {
     basicAuth(req);
-    req.header("User-Agent", "GBIF-ChecklistBuilder/1.0");
-    HttpResponse<T> resp = client.send(req.build(), bodyHandler);
+    return req.header("User-Agent", "GBIF-ChecklistBuilder/1.0");
+  }
+
+  private static <T> HttpResponse<T> check(HttpResponse<T> resp, HttpRequest.Builder req) {
     if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
       return resp;
     }
@@ -131,7 +356,9 @@ public class HttpUtils {
     Optional<String> modHeader = response.headers().firstValue(LAST_MODIFIED);
     if (modHeader.isPresent()) {
       Date date = parseHeaderDate(modHeader.get());
-      downloadTo.setLastModified(date.getTime());
+      if (date != null) {
+        downloadTo.setLastModified(date.getTime());
+      }
     }
   }
 
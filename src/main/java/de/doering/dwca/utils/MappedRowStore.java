@@ -0,0 +1,116 @@
+package de.doering.dwca.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A persistent, read only store of rows sorted by a key column which is memory mapped when opened,
+ * so iterating its rows in key order reads them straight from the page cache without parsing the source again
+ * or holding them on the heap. Rows are only read front to back, there is no lookup by key.
+ *
+ * A store is a single file NAME.rows with the packed rows in key order, which must stay below 2GB.
+ */
+public class MappedRowStore {
+  private static final int BUFFER = 64 * 1024;
+
+  private final ByteBuffer rows;
+
+  private MappedRowStore(ByteBuffer rows) {
+    this.rows = rows;
+  }
+
+  private static File rowsFile(File dir, String name) {
+    return new File(dir, name + ".rows");
+  }
+
+  /**
+   * Writes all rows to a new store in dir.
+   *
+   * @param sorted rows sorted by the key column in ExternalSort.KEY_ORDER
+   * @return the number of rows written
+   * @throws IllegalArgumentException if the rows are not sorted by the key column
+   */
+  public static int write(File dir, String name, Iterator<List<String>> sorted, int keyColumn) throws IOException {
+    int count = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rowsFile(dir, name)), BUFFER))) {
+      String lastKey = null;
+      while (sorted.hasNext()) {
+        List<String> row = sorted.next();
+        String key = row.get(keyColumn);
+        if (count > 0 && ExternalSort.KEY_ORDER.compare(lastKey, key) > 0) {
+          throw new IllegalArgumentException("Rows of " + name + " not sorted, key " + key + " follows " + lastKey);
+        }
+        lastKey = key;
+        ExternalSort.writeRow(out, row);
+        count++;
+      }
+      // the byte counter of the stream stops at the largest int
+      if (out.size() == Integer.MAX_VALUE) {
+        throw new IOException("Rows of " + name + " exceed 2GB");
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Maps an existing store into memory.
+   */
+  public static MappedRowStore open(File dir, String name) throws IOException {
+    File f = rowsFile(dir, name);
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      if (ch.size() > Integer.MAX_VALUE) {
+        throw new IOException("Cannot map " + f + " larger than 2GB");
+      }
+      // the mapping stays valid after the channel is closed
+      return new MappedRowStore(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    }
+  }
+
+  /**
+   * @return all rows in key order
+   */
+  public Iterator<List<String>> iterator() {
+    final ByteBuffer buf = rows.duplicate();
+    return new Iterator<List<String>>() {
+      @Override
+      public boolean hasNext() {
+        return buf.hasRemaining();
+      }
+
+      @Override
+      public List<String> next() {
+        if (!buf.hasRemaining()) {
+          throw new NoSuchElementException();
+        }
+        return readRow(buf);
+      }
+    };
+  }
+
+  private static List<String> readRow(ByteBuffer buf) {
+    int cols = buf.getInt();
+    List<String> row = new ArrayList<>(cols);
+    for (int i = 0; i < cols; i++) {
+      int len = buf.getInt();
+      if (len < 0) {
+        row.add(null);
+      } else {
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        row.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+    }
+    return row;
+  }
+}
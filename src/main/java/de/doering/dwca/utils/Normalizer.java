@@ -0,0 +1,73 @@
+package de.doering.dwca.utils;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A thread safe, memoizing wrapper around a normalization function for values of a small vocabulary,
+ * so each distinct value is parsed only once. Null results are memoized as well.
+ * At most maxEntries distinct values are kept, further values are normalized on every call.
+ * Use {@link Normalizers#register} to create instances that show up in the build report.
+ */
+public class Normalizer<T> {
+  private final String name;
+  private final Function<String, T> function;
+  private final int maxEntries;
+  private final ConcurrentMap<String, Optional<T>> cache = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  Normalizer(String name, Function<String, T> function, int maxEntries) {
+    this.name = name;
+    this.function = function;
+    this.maxEntries = maxEntries;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the normalized value or null if the value is null or cannot be normalized
+   */
+  public T normalize(String value) {
+    if (value == null) {
+      return null;
+    }
+    Optional<T> result = cache.get(value);
+    if (result != null) {
+      hits.incrementAndGet();
+      return result.orElse(null);
+    }
+    misses.incrementAndGet();
+    if (cache.size() >= maxEntries) {
+      return function.apply(value);
+    }
+    return cache.computeIfAbsent(value, v -> Optional.ofNullable(function.apply(v))).orElse(null);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the share of calls answered from the cache, 0 if there was none
+   */
+  public double hitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  public String report() {
+    return String.format("%s: %d distinct values, %d hits, %d misses, %.1f%% hit rate",
+        name, cache.size(), hits.get(), misses.get(), hitRate() * 100);
+  }
+}
@@ -0,0 +1,54 @@
+package de.doering.dwca.utils;
+
+import org.gbif.api.vocabulary.Language;
+import org.gbif.common.parsers.LanguageParser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Registry of the memoizing normalizers shared by all builders of a JVM.
+ * Common vocabularies are available as constants, builders register their own lookups
+ * like threat status, area or family cleanup as static fields.
+ */
+public class Normalizers {
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+  private static final Map<String, Normalizer<?>> REGISTRY = new ConcurrentSkipListMap<>();
+
+  /**
+   * Language names or codes parsed by the GBIF LanguageParser.
+   */
+  public static final Normalizer<Language> LANGUAGE = register("language",
+      v -> LanguageParser.getInstance().parse(v).getPayload());
+
+  private Normalizers() {
+  }
+
+  /**
+   * Registers a new normalizer keeping up to DEFAULT_MAX_ENTRIES values.
+   * @param name unique name used in the report
+   */
+  public static <T> Normalizer<T> register(String name, Function<String, T> function) {
+    return register(name, function, DEFAULT_MAX_ENTRIES);
+  }
+
+  public static <T> Normalizer<T> register(String name, Function<String, T> function, int maxEntries) {
+    Normalizer<T> n = new Normalizer<>(name, function, maxEntries);
+    if (REGISTRY.putIfAbsent(name, n) != null) {
+      throw new IllegalArgumentException("Normalizer " + name + " already registered");
+    }
+    return n;
+  }
+
+  /**
+   * @return the hit rates of all normalizers used so far
+   */
+  public static String report() {
+    return REGISTRY.values().stream()
+        .filter(n -> n.getHits() + n.getMisses() > 0)
+        .map(Normalizer::report)
+        .collect(Collectors.joining("; "));
+  }
+}
@@ -0,0 +1,125 @@
+package de.doering.dwca.utils;
+
+import org.gbif.utils.file.tabular.TabularDataFileReader;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A column projection for tabular rows which keeps only the values of the columns a builder reads.
+ * Projected rows keep the original column indices, so existing column constants can still be used,
+ * but hold only the projected values. Other columns read as null.
+ */
+public class Projection {
+  // column index to slot in the projected values, -1 if not projected
+  private final int[] slots;
+  private final int projected;
+
+  private Projection(int[] slots, int projected) {
+    this.slots = slots;
+    this.projected = projected;
+  }
+
+  /**
+   * @param columns indices of the columns to keep
+   */
+  public static Projection of(int... columns) {
+    int width = Arrays.stream(columns).max().orElse(-1) + 1;
+    int[] slots = new int[width];
+    Arrays.fill(slots, -1);
+    int slot = 0;
+    for (int col : columns) {
+      if (slots[col] < 0) {
+        slots[col] = slot++;
+      }
+    }
+    return new Projection(slots, slot);
+  }
+
+  public List<String> apply(List<String> row) {
+    return apply(row, null);
+  }
+
+  /**
+   * Projects the row, sharing repeated values through the pool which is keyed by the original column index.
+   */
+  public List<String> apply(List<String> row, @Nullable StringPool pool) {
+    String[] values = new String[projected];
+    for (int col = 0; col < slots.length && col < row.size(); col++) {
+      if (slots[col] >= 0) {
+        values[slots[col]] = pool == null ? row.get(col) : pool.intern(col, row.get(col));
+      }
+    }
+    return new Row(values, row.size());
+  }
+
+  /**
+   * @return a reader returning projected rows of the given reader
+   */
+  public TabularDataFileReader<List<String>> wrap(final TabularDataFileReader<List<String>> reader) {
+    return wrap(reader, null);
+  }
+
+  /**
+   * @return a reader returning projected rows of the given reader with values shared through the pool
+   */
+  public TabularDataFileReader<List<String>> wrap(final TabularDataFileReader<List<String>> reader, @Nullable final StringPool pool) {
+    return new TabularDataFileReader<List<String>>() {
+      @Override
+      public List<String> read() throws IOException, ParseException {
+        List<String> row = reader.read();
+        return row == null ? null : apply(row, pool);
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  /**
+   * @return the projected column indices, stable across runs
+   */
+  @Override
+  public String toString() {
+    int[] columns = new int[projected];
+    for (int col = 0; col < slots.length; col++) {
+      if (slots[col] >= 0) {
+        columns[slots[col]] = col;
+      }
+    }
+    return Arrays.toString(columns);
+  }
+
+  private class Row extends AbstractList<String> implements RandomAccess {
+    private final String[] values;
+    private final int size;
+
+    Row(String[] values, int size) {
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    public String get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Column " + index + " of " + size);
+      }
+      if (index >= slots.length || slots[index] < 0) {
+        return null;
+      }
+      return values[slots[index]];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
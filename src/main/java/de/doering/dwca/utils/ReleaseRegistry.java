@@ -0,0 +1,136 @@
+package de.doering.dwca.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A persistent registry of the latest release found per source, so builders only need to look for newer
+ * releases instead of rediscovering the current one on every run.
+ *
+ * A release is kept with its url, the HTTP validators (ETag, Last-Modified) to revalidate it with a conditional
+ * request, the time it was last checked and optional attributes like its version.
+ * All entries are kept in a single properties file with keys prefixed by the source,
+ * a plain source key holding just the url is read as a release without validators.
+ */
+public class ReleaseRegistry {
+  private static final String URL = "url";
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String CHECKED = "checked";
+  private static final String ATTR = "attr.";
+  // shared by all instances as several builders might update the same file concurrently
+  private static final Object LOCK = new Object();
+
+  private final File file;
+
+  public static class Release {
+    public final String url;
+    public final String etag;
+    public final String lastModified;
+    public final Instant checked;
+    private final Map<String, String> attributes;
+
+    public Release(String url, @Nullable String etag, @Nullable String lastModified, Instant checked) {
+      this(url, etag, lastModified, checked, Collections.emptyMap());
+    }
+
+    public Release(String url, @Nullable String etag, @Nullable String lastModified, Instant checked,
+                   Map<String, String> attributes) {
+      this.url = url;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.checked = checked;
+      this.attributes = Collections.unmodifiableMap(new HashMap<>(attributes));
+    }
+
+    /**
+     * @return the value of a release attribute like its version or null if not recorded
+     */
+    public String get(String attribute) {
+      return attributes.get(attribute);
+    }
+
+    public Map<String, String> getAttributes() {
+      return attributes;
+    }
+  }
+
+  public ReleaseRegistry(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the release recorded for the source or null if there is none
+   */
+  public Release get(String source) throws IOException {
+    Properties props = load();
+    String url = props.getProperty(source + "." + URL, props.getProperty(source));
+    if (url == null) {
+      return null;
+    }
+    String checked = props.getProperty(source + "." + CHECKED);
+    Map<String, String> attributes = new HashMap<>();
+    String prefix = source + "." + ATTR;
+    for (String key : props.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        attributes.put(key.substring(prefix.length()), props.getProperty(key));
+      }
+    }
+    return new Release(url,
+        props.getProperty(source + "." + ETAG),
+        props.getProperty(source + "." + LAST_MODIFIED),
+        checked == null ? Instant.EPOCH : Instant.parse(checked),
+        attributes
+    );
+  }
+
+  /**
+   * Records the release of a source, replacing any previous one.
+   */
+  public void put(String source, Release release) throws IOException {
+    synchronized (LOCK) {
+      Properties props = load();
+      props.remove(source);
+      props.stringPropertyNames().stream()
+          .filter(key -> key.startsWith(source + "."))
+          .forEach(props::remove);
+      props.setProperty(source + "." + URL, release.url);
+      if (release.etag != null) {
+        props.setProperty(source + "." + ETAG, release.etag);
+      }
+      if (release.lastModified != null) {
+        props.setProperty(source + "." + LAST_MODIFIED, release.lastModified);
+      }
+      props.setProperty(source + "." + CHECKED, release.checked.toString());
+      release.attributes.forEach((key, value) -> props.setProperty(source + "." + ATTR + key, value));
+      FileUtils.forceMkdirParent(file);
+      try (OutputStream out = new FileOutputStream(file)) {
+        props.store(out, null);
+      }
+    }
+  }
+
+  private Properties load() throws IOException {
+    Properties props = new Properties();
+    synchronized (LOCK) {
+      if (file.exists()) {
+        try (InputStream in = new FileInputStream(file)) {
+          props.load(in);
+        }
+      }
+    }
+    return props;
+  }
+}
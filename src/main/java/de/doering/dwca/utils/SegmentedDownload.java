@@ -0,0 +1,208 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Downloads a large file as several HTTP byte ranges concurrently and reassembles them into the target file.
+ *
+ * Each range is written to its own part file inside a parts directory which survives failures,
+ * so a later attempt or run only requests the bytes still missing as long as the remote file is unchanged.
+ */
+class SegmentedDownload {
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedDownload.class);
+  private static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+  private static final int MAX_ATTEMPTS = 3;
+  private static final String STATE_FILE = "state.properties";
+  private static final String URL = "url";
+  private static final String LENGTH = "length";
+  private static final String SEGMENTS = "segments";
+  private static final String VALIDATOR = "validator";
+
+  private final HttpUtils http;
+  private final int segments;
+  private final long minSegmentSize;
+
+  SegmentedDownload(HttpUtils http, int segments) {
+    this(http, segments, MIN_SEGMENT_SIZE);
+  }
+
+  SegmentedDownload(HttpUtils http, int segments, long minSegmentSize) {
+    this.http = http;
+    this.segments = segments;
+    this.minSegmentSize = minSegmentSize;
+  }
+
+  /**
+   * Downloads the url in segments if the server supports byte ranges and the file is large enough.
+   *
+   * @param partsDir directory to keep the downloaded segments in until the download completes
+   * @return true if the file was downloaded, false if ranges cannot be used and nothing was done
+   */
+  boolean download(URI url, File target, File partsDir) throws Exception {
+    HttpResponse<Void> head = head(url);
+    if (head == null || !accepts(head)) {
+      LOG.debug("No segmented download for {}", url);
+      return false;
+    }
+    download(url, head, target, partsDir);
+    return true;
+  }
+
+  /**
+   * Asks for the length and byte range support of the url.
+   *
+   * @return the response or null if the server rejects HEAD requests
+   */
+  HttpResponse<Void> head(URI url) throws Exception {
+    HttpResponse<Void> head = http.sendUnchecked(HttpRequest.newBuilder(url).method("HEAD", HttpRequest.BodyPublishers.noBody()),
+        HttpResponse.BodyHandlers.discarding());
+    if (head.statusCode() < 200 || head.statusCode() >= 300) {
+      LOG.debug("HEAD request to {} failed with HTTP {}", url, head.statusCode());
+      return null;
+    }
+    return head;
+  }
+
+  /**
+   * Downloads the url in segments.
+   * If segments still fail with responses other than 206 after all attempts the whole file is fetched with a single GET.
+   *
+   * @param head a response for the url which was accepted before, giving its length and validators
+   */
+  void download(URI url, HttpResponse<?> head, File target, File partsDir) throws Exception {
+    long length = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+    int n = segments(length);
+    String validator = head.headers().firstValue("ETag")
+        .orElse(head.headers().firstValue("Last-Modified").orElse(""));
+    prepare(partsDir, url, length, n, validator);
+
+    LOG.info("Downloading {} bytes from {} in {} segments", length, url, n);
+    long size = length / n;
+    int rejected = 0;
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      List<CompletableFuture<HttpResponse<Path>>> futures = Lists.newArrayList();
+      for (int i = 0; i < n; i++) {
+        File part = part(partsDir, i);
+        long start = i * size + part.length();
+        long end = i == n - 1 ? length - 1 : (i + 1) * size - 1;
+        if (start <= end) {
+          futures.add(http.sendAsync(HttpRequest.newBuilder(url).header("Range", "bytes=" + start + "-" + end),
+              info -> info.statusCode() == 206
+                  ? HttpResponse.BodySubscribers.ofFile(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                  : HttpResponse.BodySubscribers.replacing(null)
+          ));
+        }
+      }
+      int failed = 0;
+      rejected = 0;
+      for (CompletableFuture<HttpResponse<Path>> f : futures) {
+        try {
+          if (f.get().statusCode() != 206) {
+            LOG.warn("Unexpected HTTP {} for range request to {}", f.get().statusCode(), url);
+            failed++;
+            rejected++;
+          }
+        } catch (ExecutionException e) {
+          LOG.warn("Segment download of {} failed: {}", url, e.getCause().getMessage());
+          failed++;
+        }
+      }
+      if (failed == 0) {
+        break;
+      }
+      LOG.info("{} segments of {} failed in attempt {}, resuming", failed, url, attempt);
+    }
+
+    // verify and reassemble
+    for (int i = 0; i < n; i++) {
+      long expected = i == n - 1 ? length - i * size : size;
+      if (part(partsDir, i).length() != expected) {
+        if (rejected > 0) {
+          // the server keeps answering range requests without a partial response, e.g. a CDN sending 200
+          LOG.warn("Range requests to {} keep failing, falling back to a single download", url);
+          http.send(HttpRequest.newBuilder(url), HttpResponse.BodyHandlers.ofFile(target.toPath()));
+          FileUtils.deleteDirectory(partsDir);
+          return;
+        }
+        throw new IOException("Incomplete segment " + i + " of " + url + ", keeping parts for a later resume");
+      }
+    }
+    try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (int i = 0; i < n; i++) {
+        try (FileChannel in = FileChannel.open(part(partsDir, i).toPath(), StandardOpenOption.READ)) {
+          long pos = 0;
+          while (pos < in.size()) {
+            pos += in.transferTo(pos, in.size() - pos, out);
+          }
+        }
+      }
+    }
+    FileUtils.deleteDirectory(partsDir);
+  }
+
+  /**
+   * @return true if the response announces byte range support and a length worth splitting into segments
+   */
+  boolean accepts(HttpResponse<?> resp) {
+    boolean ranges = resp.headers().firstValue("Accept-Ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+    return ranges && segments(resp.headers().firstValueAsLong("Content-Length").orElse(-1)) > 1;
+  }
+
+  private int segments(long length) {
+    return (int) Math.max(0, Math.min(segments, length / minSegmentSize));
+  }
+
+  private static File part(File partsDir, int idx) {
+    return new File(partsDir, "part-" + idx);
+  }
+
+  /**
+   * Keeps existing parts for a resume if they belong to the same remote file and segmentation.
+   * Otherwise the parts directory is cleared.
+   */
+  private static void prepare(File partsDir, URI url, long length, int segments, String validator) throws IOException {
+    Properties state = new Properties();
+    state.setProperty(URL, url.toString());
+    state.setProperty(LENGTH, String.valueOf(length));
+    state.setProperty(SEGMENTS, String.valueOf(segments));
+    state.setProperty(VALIDATOR, validator);
+
+    File stateFile = new File(partsDir, STATE_FILE);
+    if (stateFile.exists()) {
+      Properties existing = new Properties();
+      try (InputStream in = new FileInputStream(stateFile)) {
+        existing.load(in);
+      }
+      if (Objects.equals(state, existing) && !validator.isEmpty()) {
+        LOG.info("Resume segmented download of {}", url);
+        return;
+      }
+    }
+    FileUtils.deleteDirectory(partsDir);
+    FileUtils.forceMkdir(partsDir);
+    try (OutputStream out = new FileOutputStream(stateFile)) {
+      state.store(out, null);
+    }
+  }
+}
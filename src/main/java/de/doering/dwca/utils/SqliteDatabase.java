@@ -0,0 +1,204 @@
+package de.doering.dwca.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tuned read access to a sqlite database used as builder input.
+ *
+ * Connections are opened read only with a memory mapped database file, a larger page cache and temporary
+ * tables in memory. Indexes required by the extraction queries are verified first and created if missing,
+ * in a writable working copy unless the database may be changed in place.
+ */
+public class SqliteDatabase implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SqliteDatabase.class);
+  public static final long DEFAULT_MMAP_SIZE = 1024L * 1024 * 1024;
+  public static final int DEFAULT_CACHE_SIZE_KB = 64 * 1024;
+
+  private final File file;
+  private final boolean inPlace;
+  private final List<List<String>> required = new ArrayList<>();
+  private long mmapSize = DEFAULT_MMAP_SIZE;
+  private int cacheSizeKb = DEFAULT_CACHE_SIZE_KB;
+  private File workingCopy;
+
+  /**
+   * @param inPlace true if missing indexes may be added to the given file, e.g. a temporary extraction
+   */
+  public SqliteDatabase(File file, boolean inPlace) {
+    this.file = file;
+    this.inPlace = inPlace;
+  }
+
+  /**
+   * Requires an index on the table starting with the given columns.
+   */
+  public SqliteDatabase requireIndex(String table, String... columns) {
+    List<String> req = new ArrayList<>();
+    req.add(table);
+    req.addAll(Arrays.asList(columns));
+    required.add(req);
+    return this;
+  }
+
+  public SqliteDatabase mmapSize(long bytes) {
+    this.mmapSize = bytes;
+    return this;
+  }
+
+  public SqliteDatabase cacheSizeKb(int kb) {
+    this.cacheSizeKb = kb;
+    return this;
+  }
+
+  private static String url(File db) {
+    return "jdbc:sqlite:" + db.getAbsolutePath();
+  }
+
+  /**
+   * Creates missing indexes and opens a tuned, read only connection.
+   */
+  public Connection open() throws SQLException, IOException {
+    File db = workingCopy == null ? file : workingCopy;
+    List<List<String>> missing;
+    try (Connection c = connect(db)) {
+      missing = missingIndexes(c);
+    }
+    if (!missing.isEmpty()) {
+      if (!inPlace && workingCopy == null) {
+        workingCopy = File.createTempFile("sqlite", ".db");
+        LOG.info("Copy {} to writable working copy {} to add indexes", file, workingCopy);
+        FileUtils.copyFile(file, workingCopy);
+        db = workingCopy;
+      }
+      try (Connection c = DriverManager.getConnection(url(db));
+           Statement st = c.createStatement()) {
+        for (List<String> idx : missing) {
+          String table = idx.get(0);
+          List<String> columns = idx.subList(1, idx.size());
+          String name = "idx_" + table + "_" + String.join("_", columns);
+          LOG.info("Create missing index {} on {}", name, table);
+          st.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + String.join(", ", columns) + ")");
+          st.execute("ANALYZE " + table);
+        }
+      }
+    }
+    return connect(db);
+  }
+
+  /**
+   * Opens another tuned, read only connection after open verified the indexes,
+   * e.g. one per thread as sqlite handles concurrent readers well.
+   */
+  public Connection connect() throws SQLException {
+    return connect(workingCopy == null ? file : workingCopy);
+  }
+
+  private Connection connect(File db) throws SQLException {
+    SQLiteConfig cfg = new SQLiteConfig();
+    cfg.setReadOnly(true);
+    // negative sizes are in KiB instead of pages
+    cfg.setCacheSize(-cacheSizeKb);
+    cfg.setTempStore(SQLiteConfig.TempStore.MEMORY);
+    Connection c = DriverManager.getConnection(url(db), cfg.toProperties());
+    try (Statement st = c.createStatement()) {
+      st.execute("PRAGMA mmap_size = " + mmapSize);
+    }
+    return c;
+  }
+
+  private List<List<String>> missingIndexes(Connection c) throws SQLException {
+    List<List<String>> missing = new ArrayList<>();
+    for (List<String> req : required) {
+      if (!hasIndex(c, req.get(0), req.subList(1, req.size()))) {
+        missing.add(req);
+      }
+    }
+    return missing;
+  }
+
+  private static boolean hasIndex(Connection c, String table, List<String> columns) throws SQLException {
+    try (Statement st = c.createStatement()) {
+      // an INTEGER PRIMARY KEY is the rowid and always indexed
+      List<String> pk = new ArrayList<>();
+      boolean intPk = false;
+      try (ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+        while (rs.next()) {
+          if (rs.getInt("pk") > 0) {
+            pk.add(rs.getString("name"));
+            intPk = "INTEGER".equalsIgnoreCase(rs.getString("type"));
+          }
+        }
+      }
+      if (intPk && pk.size() == 1 && columns.size() == 1 && pk.get(0).equalsIgnoreCase(columns.get(0))) {
+        return true;
+      }
+      List<String> indexes = new ArrayList<>();
+      try (ResultSet rs = st.executeQuery("PRAGMA index_list(" + table + ")")) {
+        while (rs.next()) {
+          indexes.add(rs.getString("name"));
+        }
+      }
+      for (String idx : indexes) {
+        List<String> idxColumns = new ArrayList<>();
+        try (ResultSet rs = st.executeQuery("PRAGMA index_info(" + idx + ")")) {
+          while (rs.next()) {
+            // expressions have no column name
+            idxColumns.add(String.valueOf(rs.getString("name")).toLowerCase());
+          }
+        }
+        if (idxColumns.size() >= columns.size()
+            && idxColumns.subList(0, columns.size()).equals(columns.stream().map(String::toLowerCase).toList())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Logs the query plan of an extraction query, warning about sorts in temporary b-trees
+   * which usually mean an index is missing.
+   *
+   * @param params values for the parameters of the query
+   */
+  public static void explain(Connection c, String name, String sql, Object... params) throws SQLException {
+    try (PreparedStatement st = c.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+      for (int i = 0; i < params.length; i++) {
+        st.setObject(i + 1, params[i]);
+      }
+      ResultSet rs = st.executeQuery();
+      while (rs.next()) {
+        String detail = rs.getString("detail");
+        if (detail.contains("TEMP B-TREE")) {
+          LOG.warn("Query plan {}: {}", name, detail);
+        } else {
+          LOG.info("Query plan {}: {}", name, detail);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the working copy, if one was needed.
+   */
+  @Override
+  public void close() {
+    FileUtils.deleteQuietly(workingCopy);
+  }
+}
@@ -0,0 +1,108 @@
+package de.doering.dwca.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A per column dictionary of string values, so repeated values of low cardinality columns like ranks,
+ * higher taxa, categories or languages share a single instance while rows are held in memory.
+ *
+ * Each column pools at most maxEntries distinct values. A full column keeps its dictionary only if most
+ * values have been repeated, otherwise it is a key like column and pooling is given up for it.
+ * Pools are not thread safe, use one per table.
+ */
+public class StringPool {
+  private static final Logger LOG = LoggerFactory.getLogger(StringPool.class);
+  public static final int DEFAULT_MAX_ENTRIES = 64 * 1024;
+
+  private final String name;
+  private final int maxEntries;
+  private final Map<Integer, Column> columns = new HashMap<>();
+
+  private static class Column {
+    Map<String, String> values = new HashMap<>();
+    long lookups;
+    long hits;
+    long savedBytes;
+    boolean disabled;
+  }
+
+  public StringPool(String name) {
+    this(name, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param name of the pooled table used for reporting
+   * @param maxEntries maximum number of distinct values pooled per column
+   */
+  public StringPool(String name, int maxEntries) {
+    this.name = name;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * @return the pooled instance equal to value, or value itself if it is new or the column is not pooled
+   */
+  public String intern(int column, String value) {
+    if (value == null) {
+      return null;
+    }
+    Column col = columns.computeIfAbsent(column, c -> new Column());
+    if (col.disabled) {
+      return value;
+    }
+    col.lookups++;
+    String pooled = col.values.get(value);
+    if (pooled != null) {
+      col.hits++;
+      col.savedBytes += estimateSize(value);
+      return pooled;
+    }
+    if (col.values.size() < maxEntries) {
+      col.values.put(value, value);
+    } else if (col.hits * 2 < col.lookups) {
+      // mostly distinct values, the dictionary would only cost memory
+      col.values = null;
+      col.disabled = true;
+    }
+    return value;
+  }
+
+  private static long estimateSize(String s) {
+    // string and array headers plus latin1 compact chars
+    return 40 + s.length();
+  }
+
+  /**
+   * @return approximate number of heap bytes saved by sharing instances of the given column
+   */
+  public long savedBytes(int column) {
+    Column col = columns.get(column);
+    return col == null ? 0 : col.savedBytes;
+  }
+
+  /**
+   * @return approximate number of heap bytes saved over all columns
+   */
+  public long savedBytes() {
+    return columns.values().stream().mapToLong(c -> c.savedBytes).sum();
+  }
+
+  /**
+   * Logs the saved heap per column.
+   */
+  public void report() {
+    columns.forEach((idx, col) -> {
+      if (col.disabled) {
+        LOG.debug("{} column {}: not pooled, values are mostly distinct", name, idx);
+      } else {
+        LOG.debug("{} column {}: {} distinct values, {} of {} repeated, saved ~{} KB",
+            name, idx, col.values.size(), col.hits, col.lookups, col.savedBytes / 1024);
+      }
+    });
+    LOG.info("String pool of {} saved ~{} KB", name, savedBytes() / 1024);
+  }
+}
@@ -0,0 +1,67 @@
+package de.doering.dwca.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Opens the named tables of a download, either from extracted files or straight from the entries of a zip,
+ * which avoids writing all inflated data to disk before it is read.
+ */
+public interface TableSource extends Closeable {
+
+  /**
+   * @param name the file name of the table, ignoring the case and any folders
+   * @throws FileNotFoundException if there is no such table
+   */
+  InputStream open(String name) throws IOException;
+
+  /**
+   * Reads the tables from a list of files.
+   */
+  static TableSource of(List<File> files) {
+    return new TableSource() {
+      @Override
+      public InputStream open(String name) throws IOException {
+        for (File f : files) {
+          if (f.getName().equalsIgnoreCase(name)) {
+            return new FileInputStream(f);
+          }
+        }
+        throw new FileNotFoundException("Missing table " + name);
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * Reads the tables as entries of a zip file, inflating them only while they are read.
+   */
+  static TableSource zip(File zip) throws IOException {
+    final ZipFile zf = new ZipFile(zip);
+    return new TableSource() {
+      @Override
+      public InputStream open(String name) throws IOException {
+        ZipEntry entry = ZipUtils.findEntry(zf, name);
+        if (entry == null) {
+          throw new FileNotFoundException("Missing table " + name + " in " + zip);
+        }
+        return zf.getInputStream(entry);
+      }
+
+      @Override
+      public void close() throws IOException {
+        zf.close();
+      }
+    };
+  }
+}
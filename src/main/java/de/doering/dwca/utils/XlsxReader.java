@@ -0,0 +1,398 @@
+package de.doering.dwca.utils;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.SAXException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A streaming reader for xlsx workbooks based on the XSSF event model.
+ *
+ * Sheets are pulled row by row from their XML, so only the shared strings are held in memory and never
+ * a DOM of the workbook. Rows are compact arrays of the cell values as strings: numbers keep their stored
+ * text with integral values written without decimals, booleans read TRUE or FALSE and formula cells give
+ * their cached result. Missing and empty cells read as null.
+ */
+public class XlsxReader implements Closeable {
+  private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+  private static final XMLInputFactory XML = XMLInputFactory.newInstance();
+  static {
+    XML.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  private final OPCPackage pkg;
+  private final XSSFReader reader;
+  private final ReadOnlySharedStringsTable strings;
+
+  private XlsxReader(OPCPackage pkg) throws IOException {
+    this.pkg = pkg;
+    try {
+      reader = new XSSFReader(pkg);
+      strings = new ReadOnlySharedStringsTable(pkg);
+    } catch (OpenXML4JException | SAXException e) {
+      pkg.revert();
+      throw new IOException("Cannot read xlsx workbook", e);
+    }
+  }
+
+  public static XlsxReader open(File xlsx) throws IOException {
+    try {
+      return new XlsxReader(OPCPackage.open(xlsx, PackageAccess.READ));
+    } catch (OpenXML4JException e) {
+      throw new IOException("Invalid xlsx file " + xlsx, e);
+    }
+  }
+
+  /**
+   * Opens a sheet for reading its rows. Close it when done.
+   *
+   * @param index zero based index of the sheet in workbook order
+   * @param links true to resolve hyperlinks of cells, which needs an additional pass over the sheet
+   */
+  public Sheet sheet(int index, boolean links) throws IOException {
+    try {
+      XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+      for (int i = 0; iter.hasNext(); i++) {
+        InputStream in = iter.next();
+        if (i == index) {
+          Map<String, String> hyperlinks = links ? hyperlinks(iter.getSheetPart()) : Collections.emptyMap();
+          return new Sheet(in, strings::getEntryAt, hyperlinks);
+        }
+        in.close();
+      }
+    } catch (OpenXML4JException e) {
+      throw new IOException("Cannot read sheet " + index, e);
+    }
+    throw new IllegalArgumentException("Workbook has no sheet " + index);
+  }
+
+  /**
+   * Reads the external hyperlinks of a sheet which are listed after all rows.
+   *
+   * @return link urls by cell reference
+   */
+  private static Map<String, String> hyperlinks(PackagePart part) throws IOException {
+    Map<String, String> links = new HashMap<>();
+    try (InputStream in = part.getInputStream()) {
+      XMLStreamReader xml = XML.createXMLStreamReader(in);
+      try {
+        while (xml.hasNext()) {
+          if (xml.next() == XMLStreamReader.START_ELEMENT && "hyperlink".equals(xml.getLocalName())) {
+            String ref = xml.getAttributeValue(null, "ref");
+            String id = xml.getAttributeValue(NS_RELATIONSHIPS, "id");
+            PackageRelationship rel = id == null ? null : part.getRelationship(id);
+            if (ref != null && rel != null) {
+              // a link for a range of cells is kept for its first cell only
+              links.put(ref.split(":")[0], rel.getTargetURI().toString());
+            }
+          }
+        }
+      } finally {
+        xml.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot read sheet hyperlinks", e);
+    }
+    return links;
+  }
+
+  @Override
+  public void close() {
+    // nothing was changed in the read only package
+    pkg.revert();
+  }
+
+  /**
+   * @return the zero based column index of a cell reference like AB12
+   */
+  static int column(String ref) {
+    int col = 0;
+    for (int i = 0; i < ref.length() && Character.isLetter(ref.charAt(i)); i++) {
+      col = col * 26 + (Character.toUpperCase(ref.charAt(i)) - 'A' + 1);
+    }
+    return col - 1;
+  }
+
+  /**
+   * @return the letters of a zero based column index
+   */
+  static String columnName(int column) {
+    StringBuilder sb = new StringBuilder();
+    for (int col = column + 1; col > 0; col = (col - 1) / 26) {
+      sb.append((char) ('A' + (col - 1) % 26));
+    }
+    return sb.reverse().toString();
+  }
+
+  /**
+   * The rows of a single sheet, read lazily from its XML.
+   */
+  public static class Sheet implements Iterator<Row>, Closeable {
+    private final InputStream in;
+    private final XMLStreamReader xml;
+    private final IntFunction<String> sharedStrings;
+    private final Map<String, String> links;
+    // reused while reading a row
+    private String[] values = new String[32];
+    private String[] formulas = new String[32];
+    private int rowNum = -1;
+    private Row next;
+    private boolean done;
+
+    Sheet(InputStream in, IntFunction<String> sharedStrings, Map<String, String> links) throws IOException {
+      this.in = in;
+      this.sharedStrings = sharedStrings;
+      this.links = links;
+      try {
+        xml = XML.createXMLStreamReader(in);
+      } catch (XMLStreamException e) {
+        in.close();
+        throw new IOException("Cannot read sheet", e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          next = readRow();
+        } catch (XMLStreamException e) {
+          throw new IllegalStateException("Cannot read row after " + rowNum, e);
+        }
+        done = next == null;
+      }
+      return next != null;
+    }
+
+    @Override
+    public Row next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Row row = next;
+      next = null;
+      return row;
+    }
+
+    private Row readRow() throws XMLStreamException {
+      int width = 0;
+      boolean hasFormulas = false;
+      int col = -1;
+      String type = null;
+      String value = null;
+      String formula = null;
+      StringBuilder inline = null;
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamReader.START_ELEMENT) {
+          switch (xml.getLocalName()) {
+            case "row":
+              String r = xml.getAttributeValue(null, "r");
+              rowNum = r == null ? rowNum + 1 : Integer.parseInt(r) - 1;
+              Arrays.fill(values, 0, values.length, null);
+              col = -1;
+              break;
+            case "c":
+              String ref = xml.getAttributeValue(null, "r");
+              col = ref == null ? col + 1 : column(ref);
+              type = xml.getAttributeValue(null, "t");
+              value = null;
+              formula = null;
+              inline = null;
+              break;
+            case "v":
+              value = xml.getElementText();
+              break;
+            case "f":
+              formula = xml.getElementText();
+              break;
+            case "is":
+              inline = new StringBuilder();
+              break;
+            case "t":
+              // text runs of inline strings, without phonetic runs
+              String text = xml.getElementText();
+              if (inline != null) {
+                inline.append(text);
+              }
+              break;
+            case "rPh":
+              skip();
+              break;
+            default:
+          }
+
+        } else if (event == XMLStreamReader.END_ELEMENT) {
+          switch (xml.getLocalName()) {
+            case "c":
+              String val = value(type, value, inline);
+              if (val != null || formula != null) {
+                ensureCapacity(col + 1);
+                values[col] = val;
+                formulas[col] = formula;
+                hasFormulas |= formula != null;
+                width = Math.max(width, col + 1);
+              }
+              break;
+            case "row":
+              Row row = new Row(rowNum, Arrays.copyOf(values, width),
+                  hasFormulas ? Arrays.copyOf(formulas, width) : null, links);
+              if (hasFormulas) {
+                Arrays.fill(formulas, 0, formulas.length, null);
+              }
+              return row;
+            case "sheetData":
+              return null;
+            default:
+          }
+        }
+      }
+      return null;
+    }
+
+    private void skip() throws XMLStreamException {
+      int depth = 1;
+      while (depth > 0) {
+        int event = xml.next();
+        if (event == XMLStreamReader.START_ELEMENT) {
+          depth++;
+        } else if (event == XMLStreamReader.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+
+    private void ensureCapacity(int size) {
+      if (size > values.length) {
+        int len = Math.max(size, values.length * 2);
+        values = Arrays.copyOf(values, len);
+        formulas = Arrays.copyOf(formulas, len);
+      }
+    }
+
+    private String value(String type, String value, StringBuilder inline) {
+      if (type == null || type.equals("n")) {
+        return number(value);
+      }
+      switch (type) {
+        case "s":
+          return value == null ? null : emptyToNull(sharedStrings.apply(Integer.parseInt(value)));
+        case "inlineStr":
+          return inline == null ? null : emptyToNull(inline.toString());
+        case "b":
+          return value == null ? null : "1".equals(value) ? "TRUE" : "FALSE";
+        default:
+          // formula strings and errors
+          return emptyToNull(value);
+      }
+    }
+
+    private static String number(String value) {
+      if (value == null || value.isEmpty()) {
+        return null;
+      }
+      try {
+        double d = Double.parseDouble(value);
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+          return String.valueOf((long) d);
+        }
+      } catch (NumberFormatException e) {
+        // keep as stored
+      }
+      return value;
+    }
+
+    private static String emptyToNull(String value) {
+      return value == null || value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        xml.close();
+      } catch (XMLStreamException e) {
+        // the stream is closed below
+      }
+      in.close();
+    }
+  }
+
+  /**
+   * A row of cell values indexed by their zero based column.
+   */
+  public static class Row {
+    private final int num;
+    private final String[] values;
+    private final String[] formulas;
+    private final Map<String, String> links;
+
+    Row(int num, String[] values, String[] formulas, Map<String, String> links) {
+      this.num = num;
+      this.values = values;
+      this.formulas = formulas;
+      this.links = links;
+    }
+
+    /**
+     * @return the zero based row index in the sheet
+     */
+    public int getRowNum() {
+      return num;
+    }
+
+    /**
+     * @return index of the last column with a value plus one
+     */
+    public int size() {
+      return values.length;
+    }
+
+    /**
+     * @return the cell value or null if the cell is missing or empty
+     */
+    public String get(int column) {
+      return column < values.length ? values[column] : null;
+    }
+
+    /**
+     * @return the formula of the cell or null if there is none
+     */
+    public String formula(int column) {
+      return formulas != null && column < formulas.length ? formulas[column] : null;
+    }
+
+    /**
+     * @return the url of a hyperlink of the cell, or of a HYPERLINK formula, null if none exists
+     */
+    public String link(int column) {
+      String url = links.get(columnName(column) + (num + 1));
+      if (url == null && formula(column) != null) {
+        Matcher m = ExcelUtils.HYPERLINK.matcher(formula(column));
+        if (m.find()) {
+          url = m.group(1);
+        }
+      }
+      return url;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package de.doering.dwca.utils;
+
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Creates standard zip files using several threads.
+ * Each entry is compressed on its own thread into a temporary scatter store and all of them are gathered
+ * into the final zip at the end.
+ * Single entries of existing zips can be read without extracting the entire zip.
+ */
+public class ZipUtils {
+  private static final Logger LOG = LoggerFactory.getLogger(ZipUtils.class);
+  /**
+   * Compression level that only stores entries without any compression.
+   */
+  public static final int STORE = Deflater.NO_COMPRESSION;
+
+  /**
+   * Zips all files found in a directory and its subdirectories with entry names relative to the directory.
+   *
+   * @param level compression level from 1-9, -1 for the deflater default or 0 to store only
+   * @param threads number of threads used for compressing entries in parallel
+   */
+  public static void zipDir(File dir, File zip, int level, int threads) throws IOException {
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, threads));
+    ParallelScatterZipCreator creator = creator(exec, level);
+    try {
+      addDir(creator, dir, "", level);
+      write(creator, zip);
+    } finally {
+      // the creator only stops the pool once all entries are written
+      exec.shutdownNow();
+    }
+    LOG.debug("Zipped {} with level {} using {} threads: {}", dir, level, threads, creator.getStatisticsMessage());
+  }
+
+  static ParallelScatterZipCreator creator(ExecutorService exec, int level) {
+    // stored entries are written as they are, the deflater level does not matter
+    return new ParallelScatterZipCreator(exec, new DefaultBackingStoreSupplier(null),
+        level == STORE ? Deflater.DEFAULT_COMPRESSION : level);
+  }
+
+  static void write(ParallelScatterZipCreator creator, File zip) throws IOException {
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip)) {
+      creator.writeTo(out);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while zipping " + zip, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to zip " + zip, e.getCause());
+    }
+  }
+
+  private static void addDir(ParallelScatterZipCreator creator, File dir, String prefix, int level) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File f : files) {
+      if (f.isDirectory()) {
+        addDir(creator, f, prefix + f.getName() + "/", level);
+      } else {
+        creator.addArchiveEntry(entry(prefix + f.getName(), f.lastModified(), level), () -> open(f));
+      }
+    }
+  }
+
+  /**
+   * @return a new entry that is stored or deflated depending on the compression level
+   */
+  public static ZipArchiveEntry entry(String name, long lastModified, int level) {
+    ZipArchiveEntry entry = new ZipArchiveEntry(name);
+    entry.setMethod(level == STORE ? ZipEntry.STORED : ZipEntry.DEFLATED);
+    entry.setTime(lastModified);
+    return entry;
+  }
+
+  /**
+   * Finds an entry by its file name, ignoring the case and any folders it is in.
+   *
+   * @return the entry or null if none exists
+   */
+  public static ZipEntry findEntry(ZipFile zip, String name) {
+    return zip.stream()
+        .filter(e -> !e.isDirectory())
+        .filter(e -> e.getName().substring(e.getName().lastIndexOf('/') + 1).equalsIgnoreCase(name))
+        .findFirst()
+        .orElse(null);
+  }
+
+  /**
+   * Extracts a single entry found by its file name to the target file.
+   *
+   * @return false if the zip has no such entry
+   */
+  public static boolean extract(File zip, String name, File target) throws IOException {
+    try (ZipFile zf = new ZipFile(zip)) {
+      ZipEntry entry = findEntry(zf, name);
+      if (entry == null) {
+        return false;
+      }
+      try (InputStream in = zf.getInputStream(entry)) {
+        Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    }
+  }
+
+  private static FileInputStream open(File f) {
+    try {
+      return new FileInputStream(f);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
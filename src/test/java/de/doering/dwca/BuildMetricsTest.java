@@ -0,0 +1,63 @@
+package de.doering.dwca;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.doering.dwca.utils.HttpUtils;
+import org.gbif.dwc.terms.GbifTerm;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BuildMetricsTest {
+
+  @Test
+  public void report() throws Exception {
+    BuildMetrics metrics = new BuildMetrics("test", new HttpUtils(null, null));
+    metrics.register();
+    ObjectName name = new ObjectName("de.doering.dwca:type=BuildMetrics,source=\"test\"");
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+    metrics.phase("parseData");
+    metrics.countCoreRecord();
+    metrics.countCoreRecord();
+    metrics.countExtensionRecord(GbifTerm.VernacularName);
+    assertEquals("parseData", ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Phase"));
+    metrics.phase("zip");
+    metrics.finish("COMPLETED");
+    metrics.unregister();
+
+    File report = File.createTempFile("report", ".json");
+    try {
+      metrics.writeReport(report);
+      JsonNode json = new ObjectMapper().readTree(report);
+      assertEquals("COMPLETED", json.get("status").asText());
+      assertEquals(2, json.get("coreRecords").asLong());
+      assertEquals(1, json.get("extensionRecords").get(GbifTerm.VernacularName.simpleName()).asLong());
+      assertTrue(json.get("phaseMillis").has("parseData"));
+      assertTrue(json.get("phasePeakHeap").get("zip").asLong() > 0);
+    } finally {
+      report.delete();
+    }
+  }
+
+  @Test
+  public void concurrentPeaks() {
+    BuildMetrics first = new BuildMetrics("first", new HttpUtils(null, null));
+    BuildMetrics second = new BuildMetrics("second", new HttpUtils(null, null));
+    first.phase("parseData");
+    byte[] data = new byte[32 * 1024 * 1024];
+    data[data.length - 1] = 1;
+    data = null;
+    System.gc();
+    // a second build starting a phase must not reset the peaks of the first
+    second.phase("parseData");
+    second.finish("COMPLETED");
+    first.finish("COMPLETED");
+    assertTrue(first.getPhasePeakHeap().get("parseData") >= 32 * 1024 * 1024);
+  }
+}
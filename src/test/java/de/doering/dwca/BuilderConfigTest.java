@@ -0,0 +1,29 @@
+package de.doering.dwca;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BuilderConfigTest {
+
+  @Test
+  public void forSource() {
+    BuilderConfig cfg = new BuilderConfig();
+    cfg.source = "itis,iucn,ioc";
+    cfg.threads = 8;
+    cfg.downloadSegments = 4;
+
+    BuilderConfig itis = cfg.forSource("itis");
+    assertEquals("itis", itis.source);
+    assertEquals(8, itis.threads);
+    assertEquals(4, itis.downloadSegments);
+
+    // concurrent builders split the budget
+    BuilderConfig iucn = cfg.forSource("iucn", 3);
+    assertEquals("iucn", iucn.source);
+    assertEquals(2, iucn.threads);
+    assertEquals(1, iucn.downloadSegments);
+    assertEquals(1, cfg.forSource("ioc", 16).threads);
+    assertEquals("itis,iucn,ioc", cfg.source);
+  }
+}
@@ -0,0 +1,102 @@
+package de.doering.dwca;
+
+import de.doering.dwca.utils.HttpUtils;
+import org.apache.commons.io.FileUtils;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExtensionRowTest {
+
+  @Test
+  public void write() throws Exception {
+    File dir = Files.createTempDirectory("dwca").toFile();
+    try {
+      DwcaWriter writer = new DwcaWriter(DwcTerm.Taxon, dir);
+      ExtensionRow row = new ExtensionRow(writer, GbifTerm.VernacularName, DwcTerm.vernacularName, DcTerm.language);
+      assertEquals(2, row.size());
+      assertTrue(row.containsKey(DcTerm.language));
+
+      writer.newRecord("1");
+      writer.addCoreColumn(DwcTerm.scientificName, "Corvus corax");
+      row.set(DwcTerm.vernacularName, "Raven").set(DcTerm.language, "en");
+      row.write();
+      // slots are cleared after each write, but all terms stay present
+      assertNull(row.get(DwcTerm.vernacularName));
+      row.set(row.slot(DwcTerm.vernacularName), "Kolkrabe");
+      row.write();
+
+      writer.newRecord("2");
+      writer.addCoreColumn(DwcTerm.scientificName, "Pica pica");
+      row.set(DwcTerm.vernacularName, "Magpie").set(DcTerm.language, "en");
+      row.write();
+      writer.close();
+
+      // read the archive back, the writer only writes the records of a core record when the next one starts
+      Map<String, List<Record>> vernaculars = new HashMap<>();
+      for (StarRecord rec : DwcFiles.fromLocation(dir.toPath())) {
+        vernaculars.put(rec.core().id(), rec.extension(GbifTerm.VernacularName));
+      }
+      assertEquals(2, vernaculars.size());
+      List<Record> raven = vernaculars.get("1");
+      assertEquals(2, raven.size());
+      assertEquals("Raven", raven.get(0).value(DwcTerm.vernacularName));
+      assertEquals("en", raven.get(0).value(DcTerm.language));
+      assertEquals("Kolkrabe", raven.get(1).value(DwcTerm.vernacularName));
+      assertNull(raven.get(1).value(DcTerm.language));
+
+      List<Record> magpie = vernaculars.get("2");
+      assertEquals(1, magpie.size());
+      assertEquals("Magpie", magpie.get(0).value(DwcTerm.vernacularName));
+      assertEquals("en", magpie.get(0).value(DcTerm.language));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void writeToZip() throws Exception {
+    File dir = Files.createTempDirectory("dwca").toFile();
+    try {
+      File dwca = new File(dir, "dwca");
+      ZipDwcaWriter writer = new ZipDwcaWriter(DwcTerm.Taxon, new File(dir, "dwca.zip"), dwca, -1, new BuildMetrics("test", new HttpUtils(null, null)));
+      ExtensionRow row = new ExtensionRow(writer, GbifTerm.VernacularName, DwcTerm.vernacularName, DcTerm.language);
+      writer.newRecord("1");
+      row.set(DwcTerm.vernacularName, "Raven").set(DcTerm.language, "en");
+      row.write();
+      assertNull(row.get(DwcTerm.vernacularName));
+      row.set(DwcTerm.vernacularName, "Kolkrabe");
+      row.write();
+      writer.close();
+
+      List<Record> raven = DwcFiles.fromLocation(dwca.toPath()).iterator().next().extension(GbifTerm.VernacularName);
+      assertEquals(2, raven.size());
+      assertEquals("Raven", raven.get(0).value(DwcTerm.vernacularName));
+      assertEquals("en", raven.get(0).value(DcTerm.language));
+      assertEquals("Kolkrabe", raven.get(1).value(DwcTerm.vernacularName));
+      assertNull(raven.get(1).value(DcTerm.language));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownTerm() {
+    new ExtensionRow(null, GbifTerm.VernacularName, DwcTerm.vernacularName).set(DcTerm.language, "en");
+  }
+}
@@ -0,0 +1,105 @@
+package de.doering.dwca;
+
+import de.doering.dwca.utils.HttpUtils;
+import de.doering.dwca.utils.ZipUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gbif.api.vocabulary.DatasetType;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZipDwcaWriterTest {
+
+  @Test
+  public void write() throws Exception {
+    File dir = Files.createTempDirectory("dwca").toFile();
+    try {
+      for (int level : new int[]{ZipUtils.STORE, -1}) {
+        File zip = new File(dir, "archive" + level + ".zip");
+        File keep = new File(dir, "archive" + level);
+        BuildMetrics metrics = new BuildMetrics("test", new HttpUtils(null, null));
+        ZipDwcaWriter writer = new ZipDwcaWriter(DwcTerm.Taxon, zip, keep, level, metrics);
+        writer.addDefaultValue(GbifTerm.Distribution, DwcTerm.occurrenceStatus, "present");
+        writer.addCoreMultiValueDelimiter(DwcTerm.acceptedNameUsageID, ",");
+        // without a core record
+        writer.addExtensionRecord(GbifTerm.VernacularName, Map.of(DwcTerm.vernacularName, "Nobody"));
+
+        writer.newRecord("1");
+        writer.addCoreColumn(DwcTerm.scientificName, " Corvus\tcorax ");
+        writer.addCoreColumn(DwcTerm.taxonomicStatus, DatasetType.CHECKLIST);
+        writer.addExtensionRecord(GbifTerm.VernacularName, Map.of(DwcTerm.vernacularName, "Raven"));
+        writer.addExtensionRecord(GbifTerm.Distribution, Map.of(DwcTerm.locality, "Europe"));
+        writer.newRecord("2");
+        writer.addCoreColumn(DwcTerm.acceptedNameUsageID, "1,3");
+        writer.addExtensionRecord(GbifTerm.VernacularName, Map.of(DwcTerm.vernacularName, "Magpie", DcTerm.language, "en"));
+        writer.setMetadata(IOUtils.toInputStream("<eml/>", StandardCharsets.UTF_8), "eml.xml");
+        writer.close();
+
+        assertFalse(new File(dir, zip.getName() + ".tmp").exists());
+        assertFalse(new File(dir, zip.getName() + ".part").exists());
+        assertEquals(2, metrics.getCoreRecords());
+        try (ZipFile zf = new ZipFile(zip)) {
+          assertEquals(5, zf.size());
+          assertEquals("1\tCorvus corax\tchecklist\n2\t\t\t1,3\n", read(zf, keep, "taxon.txt"));
+          assertEquals("1\tRaven\n2\tMagpie\ten\n", read(zf, keep, "vernacularname.txt"));
+          assertEquals("1\tEurope\n", read(zf, keep, "distribution.txt"));
+          assertEquals("<eml/>", read(zf, keep, "eml.xml"));
+          String meta = read(zf, keep, "meta.xml");
+          assertTrue(meta.contains("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\" metadata=\"eml.xml\">"));
+          assertTrue(meta.contains("fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\""));
+          assertTrue(meta.contains("rowType=\"" + DwcTerm.Taxon.qualifiedName() + "\"><files><location>taxon.txt</location></files><id index=\"0\"/>"));
+          assertTrue(meta.contains("<field index=\"3\" term=\"" + DwcTerm.acceptedNameUsageID.qualifiedName() + "\" delimitedBy=\",\"/>"));
+          assertTrue(meta.contains("<location>distribution.txt</location></files><coreid index=\"0\"/>"));
+          assertTrue(meta.contains("<field term=\"" + DwcTerm.occurrenceStatus.qualifiedName() + "\" default=\"present\"/>"));
+          int method = level == ZipUtils.STORE ? ZipEntry.STORED : ZipEntry.DEFLATED;
+          zf.stream().forEach(e -> assertEquals(e.getName(), method, e.getMethod()));
+        }
+        assertEquals(FileUtils.sizeOfDirectory(keep), writer.getUncompressedBytes());
+      }
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  /**
+   * Reads an entry of the zip and makes sure the kept directory has the same file.
+   */
+  private static String read(ZipFile zf, File keep, String name) throws Exception {
+    String content = IOUtils.toString(zf.getInputStream(zf.getEntry(name)), StandardCharsets.UTF_8);
+    assertEquals(name, content, FileUtils.readFileToString(new File(keep, name), StandardCharsets.UTF_8));
+    return content;
+  }
+
+  @Test
+  public void abort() throws Exception {
+    File dir = Files.createTempDirectory("dwca").toFile();
+    try {
+      File zip = new File(dir, "archive.zip");
+      FileUtils.write(zip, "previous", StandardCharsets.UTF_8);
+      ZipDwcaWriter writer = new ZipDwcaWriter(DwcTerm.Taxon, zip, null, -1, new BuildMetrics("test", new HttpUtils(null, null)));
+      writer.newRecord("1");
+      writer.addExtensionRecord(GbifTerm.VernacularName, Map.of(DwcTerm.vernacularName, "Raven"));
+      writer.abort();
+      // closing an aborted writer does nothing
+      writer.close();
+      // the previous archive stays, nothing else is left behind
+      assertEquals("previous", FileUtils.readFileToString(zip, StandardCharsets.UTF_8));
+      assertEquals(1, dir.list().length);
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package de.doering.dwca.itis;
+
+import de.doering.dwca.BuilderConfig;
+import org.apache.commons.io.FileUtils;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArchiveBuilderTest {
+  // the per tsn queries of the original extraction the merge join must reproduce
+  private static final String SQL_VERNACULARS = "SELECT vernacular_name, language FROM vernaculars WHERE tsn = ?";
+  private static final String SQL_DISTRIBUTIONS = "SELECT geographic_value FROM geographic_div WHERE tsn = ?";
+  private static final String SQL_REFERENCES = "SELECT p.reference_author, p.title, p.publication_name, p.listed_pub_date, p.publisher" +
+      " FROM reference_links rl JOIN publications p ON p.publication_id = rl.documentation_id" +
+      " WHERE rl.doc_id_prefix = 'PUB' AND rl.tsn = ?";
+  private static final Term[] VERNACULAR_TERMS = {DwcTerm.vernacularName, DcTerm.language};
+  private static final Term[] DISTRIBUTION_TERMS = {DwcTerm.locality};
+  private static final Term[] REFERENCE_TERMS = {DcTerm.creator, DcTerm.title, DcTerm.source, DcTerm.date, DcTerm.publisher};
+
+  /**
+   * Creates a tiny ITIS database. With chunks of 2 taxa the tsns 1,2 | 3,4 | 6,7 are extracted by separate tasks.
+   * Raven and hooded crow have several child rows, jackdaw none, and tsns 0, 5 and 100 only have child rows.
+   */
+  private static void createFixture(File sqlite) throws SQLException {
+    try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + sqlite.getAbsolutePath());
+         Statement st = c.createStatement()) {
+      st.execute("CREATE TABLE taxonomic_units (tsn INTEGER PRIMARY KEY, parent_tsn INTEGER, rank_id INTEGER, kingdom_id INTEGER, taxon_author_id INTEGER, name_usage TEXT, unaccept_reason TEXT, completeness_rtng TEXT)");
+      st.execute("CREATE TABLE longnames (tsn INTEGER PRIMARY KEY, completename TEXT)");
+      st.execute("CREATE TABLE taxon_unit_types (kingdom_id INTEGER, rank_id INTEGER, rank_name TEXT, PRIMARY KEY (kingdom_id, rank_id))");
+      st.execute("CREATE TABLE taxon_authors_lkp (taxon_author_id INTEGER PRIMARY KEY, taxon_author TEXT)");
+      st.execute("CREATE TABLE synonym_links (tsn INTEGER, tsn_accepted INTEGER)");
+      st.execute("CREATE TABLE reference_links (tsn INTEGER, doc_id_prefix TEXT, documentation_id INTEGER, original_desc_ind TEXT)");
+      st.execute("CREATE TABLE publications (publication_id INTEGER PRIMARY KEY, reference_author TEXT, title TEXT, publication_name TEXT, listed_pub_date TEXT, actual_pub_date TEXT, publisher TEXT, pages TEXT, isbn TEXT, issn TEXT)");
+      st.execute("CREATE TABLE vernaculars (tsn INTEGER, vernacular_name TEXT, language TEXT, approved_ind TEXT)");
+      st.execute("CREATE TABLE geographic_div (tsn INTEGER, geographic_value TEXT)");
+
+      st.execute("INSERT INTO taxon_unit_types VALUES (5, 10, 'Kingdom'), (5, 180, 'Genus'), (5, 220, 'Species')");
+      st.execute("INSERT INTO taxon_authors_lkp VALUES (1, 'Linnaeus, 1758')");
+      st.execute("INSERT INTO taxonomic_units VALUES" +
+          " (1, 0, 10, 5, NULL, 'valid', NULL, NULL)," +
+          " (2, 1, 180, 5, 1, 'valid', NULL, NULL)," +
+          " (3, 2, 220, 5, 1, 'valid', NULL, 'complete')," +
+          " (4, 2, 220, 5, 1, 'valid', NULL, NULL)," +
+          " (6, 0, 220, 5, 1, 'invalid', 'synonym', NULL)," +
+          " (7, 2, 220, 5, 1, 'valid', NULL, NULL)");
+      st.execute("INSERT INTO longnames VALUES (1, 'Animalia'), (2, 'Corvus'), (3, 'Corvus corax'), (4, 'Corvus cornix')," +
+          " (6, 'Corvus cinereus'), (7, 'Corvus monedula')");
+      st.execute("INSERT INTO synonym_links VALUES (6, 4)");
+      st.execute("INSERT INTO publications VALUES (1, 'Linnaeus, C.', 'Systema Naturae', 'Holmiae', '1758-01-01', '1758', 'Salvius', '1-824', NULL, NULL)");
+      // publication 99 does not exist
+      st.execute("INSERT INTO reference_links VALUES (3, 'PUB', 1, 'Y'), (3, 'PUB', 99, 'N'), (4, 'PUB', 1, 'N'), (4, 'SRC', 1, 'N')," +
+          " (5, 'PUB', 1, 'Y'), (6, 'PUB', 99, 'Y')");
+      st.execute("INSERT INTO vernaculars VALUES (0, 'Nothing', 'English', 'Y'), (3, 'Common Raven', 'English', 'Y')," +
+          " (4, 'Hooded Crow', 'English', 'Y'), (3, 'Grand Corbeau', 'French', 'Y'), (5, 'Orphan', 'English', 'Y')," +
+          " (4, 'Nebelkrähe', 'German', 'Y'), (3, 'Kolkrabe', 'German', 'N'), (6, 'Grey Crow', 'English', 'N')," +
+          " (100, 'Beyond', 'English', 'Y')");
+      st.execute("INSERT INTO geographic_div VALUES (3, 'North America'), (5, 'Oceania'), (4, 'Europe & Northern Asia (excluding China)')," +
+          " (3, 'Europe & Northern Asia (excluding China)'), (100, 'Africa')");
+      // like the ITIS download, see SqliteDatabase for indexes created on demand
+      st.execute("CREATE INDEX vernaculars_tsn ON vernaculars (tsn)");
+      st.execute("CREATE INDEX geographic_div_tsn ON geographic_div (tsn)");
+    }
+  }
+
+  @Test
+  public void processSql() throws Exception {
+    File dir = Files.createTempDirectory("itis").toFile();
+    try {
+      File sqlite = new File(dir, "ITIS.sqlite");
+      createFixture(sqlite);
+
+      BuilderConfig cfg = new BuilderConfig();
+      cfg.repository = dir;
+      cfg.source = "itis";
+      cfg.noCache = true;
+      cfg.threads = 2;
+      ArchiveBuilder builder = new ArchiveBuilder(cfg);
+      builder.chunkSize = 2;
+      File dwca = new File(dir, "dwca");
+      DwcaWriter writer = builder.openWriter(dwca);
+      builder.processSql(sqlite);
+      writer.close();
+
+      Map<String, Record> core = new LinkedHashMap<>();
+      Map<String, List<List<String>>> vernaculars = new LinkedHashMap<>();
+      Map<String, List<List<String>>> distributions = new LinkedHashMap<>();
+      Map<String, List<List<String>>> references = new LinkedHashMap<>();
+      for (StarRecord rec : DwcFiles.fromLocation(dwca.toPath())) {
+        String id = rec.core().id();
+        core.put(id, rec.core());
+        vernaculars.put(id, values(rec.extension(GbifTerm.VernacularName), VERNACULAR_TERMS));
+        distributions.put(id, values(rec.extension(GbifTerm.Distribution), DISTRIBUTION_TERMS));
+        references.put(id, values(rec.extension(GbifTerm.Reference), REFERENCE_TERMS));
+      }
+      // taxa in tsn order across all chunks, child rows without a taxon are dropped
+      assertEquals(Arrays.asList("1", "2", "3", "4", "6", "7"), new ArrayList<>(core.keySet()));
+
+      try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + sqlite.getAbsolutePath())) {
+        for (String tsn : core.keySet()) {
+          assertEquals("vernaculars of " + tsn, query(c, SQL_VERNACULARS, tsn), vernaculars.get(tsn));
+          assertEquals("distributions of " + tsn, query(c, SQL_DISTRIBUTIONS, tsn), distributions.get(tsn));
+          assertEquals("references of " + tsn, query(c, SQL_REFERENCES, tsn), references.get(tsn));
+        }
+      }
+      assertEquals(3, vernaculars.get("3").size());
+      assertEquals(2, distributions.get("3").size());
+      assertEquals(0, vernaculars.get("7").size());
+      // the link to the missing publication is skipped
+      assertEquals(1, references.get("3").size());
+      assertEquals(0, references.get("6").size());
+
+      Record raven = core.get("3");
+      assertEquals("2", raven.value(DwcTerm.parentNameUsageID));
+      assertEquals("Corvus corax", raven.value(DwcTerm.scientificName));
+      assertEquals("Linnaeus, 1758", raven.value(DwcTerm.scientificNameAuthorship));
+      assertEquals("Linnaeus, C., 1758: Systema Naturae. Holmiae. 1-824.", raven.value(DwcTerm.namePublishedIn));
+      assertEquals("1758", raven.value(DwcTerm.namePublishedInYear));
+      assertEquals("Animalia", raven.value(DwcTerm.kingdom));
+      assertEquals("Corvus", raven.value(DwcTerm.genus));
+
+      Record synonym = core.get("6");
+      assertNull(synonym.value(DwcTerm.parentNameUsageID));
+      assertEquals("4", synonym.value(DwcTerm.acceptedNameUsageID));
+      // the original description links to a missing publication
+      assertNull(synonym.value(DwcTerm.namePublishedIn));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  private static List<List<String>> values(List<Record> records, Term... terms) {
+    List<List<String>> rows = new ArrayList<>();
+    for (Record rec : records) {
+      List<String> row = new ArrayList<>();
+      for (Term t : terms) {
+        row.add(rec.value(t));
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static List<List<String>> query(Connection c, String sql, String tsn) throws SQLException {
+    List<List<String>> rows = new ArrayList<>();
+    try (PreparedStatement st = c.prepareStatement(sql)) {
+      st.setInt(1, Integer.parseInt(tsn));
+      ResultSet rs = st.executeQuery();
+      while (rs.next()) {
+        List<String> row = new ArrayList<>();
+        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+          row.add(rs.getString(i));
+        }
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,87 @@
+package de.doering.dwca.itis;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ClassificationTest {
+
+  /**
+   * Loads the classification of taxa given as tsn, parent_tsn, rank_id and name.
+   */
+  private static Classification load(Object[]... taxa) throws SQLException {
+    try (Connection c = DriverManager.getConnection("jdbc:sqlite::memory:");
+         Statement st = c.createStatement()) {
+      st.execute("CREATE TABLE taxonomic_units (tsn INTEGER PRIMARY KEY, parent_tsn INTEGER, rank_id INTEGER)");
+      st.execute("CREATE TABLE longnames (tsn INTEGER PRIMARY KEY, completename TEXT)");
+      for (Object[] t : taxa) {
+        st.execute("INSERT INTO taxonomic_units VALUES (" + t[0] + ", " + t[1] + ", " + t[2] + ")");
+        st.execute("INSERT INTO longnames VALUES (" + t[0] + ", '" + t[3] + "')");
+      }
+      return Classification.load(c);
+    }
+  }
+
+  private static Object[] taxon(int tsn, int parent, int rank, String name) {
+    return new Object[]{tsn, parent, rank, name};
+  }
+
+  @Test
+  public void classify() throws Exception {
+    Classification cl = load(
+        taxon(1, 0, 10, "Animalia"),
+        taxon(2, 1, 30, "Chordata"),
+        taxon(3, 2, 60, "Aves"),
+        // superorder
+        taxon(4, 3, 90, "Neoaves"),
+        taxon(5, 4, 100, "Passeriformes"),
+        taxon(6, 5, 140, "Corvidae"),
+        taxon(7, 6, 180, "Corvus"),
+        taxon(8, 7, 220, "Corvus corax"),
+        // parent 20 does not exist
+        taxon(9, 20, 180, "Pica"),
+        taxon(10, 20, 220, "Pica pica"),
+        // synonyms have no parent
+        taxon(11, 0, 220, "Corvus maximus")
+    );
+    String[] raven = {"Animalia", "Chordata", "Aves", "Passeriformes", "Corvidae", "Corvus"};
+    assertArrayEquals(raven, cl.classify(8));
+    // a major rank includes the taxon itself
+    assertArrayEquals(raven, cl.classify(7));
+    assertArrayEquals(new String[]{"Animalia", "Chordata", "Aves", null, null, null}, cl.classify(3));
+    // minor ranks inherit the classification of their parent
+    assertArrayEquals(new String[]{"Animalia", "Chordata", "Aves", null, null, null}, cl.classify(4));
+    assertArrayEquals(new String[]{"Animalia", "Chordata", "Aves", "Passeriformes", null, null}, cl.classify(5));
+    // orphans keep what they have themselves
+    assertArrayEquals(new String[]{null, null, null, null, null, "Pica"}, cl.classify(9));
+    assertArrayEquals(new String[6], cl.classify(10));
+    assertArrayEquals(new String[6], cl.classify(11));
+    // unknown tsns
+    assertArrayEquals(new String[6], cl.classify(12));
+    assertArrayEquals(new String[6], cl.classify(15));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void cycle() throws Exception {
+    load(
+        taxon(1, 0, 10, "Animalia"),
+        taxon(2, 3, 100, "Passeriformes"),
+        taxon(3, 2, 140, "Corvidae")
+    );
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void cycleOfMinorRanks() throws Exception {
+    load(
+        taxon(1, 0, 10, "Animalia"),
+        taxon(2, 3, 90, "Neoaves"),
+        taxon(3, 2, 120, "Corvida"),
+        taxon(4, 3, 220, "Corvus corax")
+    );
+  }
+}
@@ -0,0 +1,195 @@
+package de.doering.dwca.iucn;
+
+import de.doering.dwca.BuilderConfig;
+import org.apache.commons.io.FileUtils;
+import org.gbif.dwc.DwcFiles;
+import org.gbif.dwc.DwcaWriter;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.record.StarRecord;
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.IucnTerm;
+import org.gbif.dwc.terms.Term;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArchiveBuilderTest {
+  private static final Term[] DISTRIBUTION_TERMS = {DwcTerm.locality, IucnTerm.threatStatus, DwcTerm.occurrenceStatus};
+  private static final Term[] VERNACULAR_TERMS = {DwcTerm.vernacularName, DcTerm.language, GbifTerm.isPreferredName};
+
+  /**
+   * Writes the tables of a tiny IUCN download. Taxa are listed out of key order,
+   * the subpopulation 5 is skipped and jay 7 has neither common names nor synonyms.
+   */
+  private static List<File> createFixture(File dir) throws IOException {
+    List<File> files = new ArrayList<>();
+    try (PrintWriter tax = csv(files, dir, "taxonomy.csv", "internalTaxonId,scientificName,kingdomName,phylumName,className,orderName,familyName,genusName,speciesName,infraType,infraName,infraAuthority,subpopulationName,authority,taxonomicNotes");
+         PrintWriter ass = csv(files, dir, "assessments.csv", "assessmentId,internalTaxonId,scientificName,redlistCategory,redlistCriteria,yearPublished,assessmentDate,criteriaVersion,language,rationale,habitat,threats,population,populationTrend,range,useTrade,systems,conservationActions,realm,yearLastSeen,possiblyExtinct,possiblyExtinctInTheWild,scopes");
+         PrintWriter com = csv(files, dir, "common_names.csv", "internalTaxonId,scientificName,name,language,main");
+         PrintWriter doi = csv(files, dir, "dois.csv", "assessmentId,scientificName,internalTaxonId,doi");
+         PrintWriter cre = csv(files, dir, "credits.csv", "assessmentId,internalTaxonId,scientificName,type,text,full,value,order");
+         PrintWriter syn = csv(files, dir, "synonyms.csv", "internalTaxonId,scientificName,name,genusName,speciesName,speciesAuthor,infraType,infraRankAuthor")
+    ) {
+      row(tax, "20", "Corvus corax", "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "CORVIDAE", "Corvus", "corax", "", "", "", "", "Linnaeus, 1758", "");
+      row(tax, "3", "Pica pica", "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "CORVIDAE", "Pica", "pica", "", "", "", "", "(Linnaeus, 1758)", "");
+      row(tax, "5", "Pica pica", "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "CORVIDAE", "Pica", "pica", "", "", "", "Asian", "(Linnaeus, 1758)", "");
+      row(tax, "100", "Corvus corax tingitanus", "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "CORVIDAE", "Corvus", "corax", "ssp.", "tingitanus", "Irby, 1874", "", "Irby, 1874", "");
+      row(tax, "7", "Garrulus glandarius", "ANIMALIA", "CHORDATA", "AVES", "PASSERIFORMES", "CORVIDAE", "Garrulus", "glandarius", "", "", "", "", "(Linnaeus, 1758)", "");
+
+      assessment(ass, "100001", "100", "Extinct", "2020");
+      assessment(ass, "2001", "20", "Lower Risk/least concern", "1994");
+      assessment(ass, "2002", "20", "Least Concern", "2016");
+      assessment(ass, "301", "3", "Least Concern", "2018");
+      assessment(ass, "501", "5", "Endangered", "2018");
+      assessment(ass, "701", "7", "Least Concern", "2019");
+
+      row(com, "3", "Pica pica", "Magpie", "English", "true");
+      row(com, "5", "Pica pica", "Asian Magpie", "English", "true");
+      row(com, "20", "Corvus corax", "Common Raven", "English", "true");
+      row(com, "3", "Pica pica", "Elster", "German", "false");
+      row(com, "20", "Corvus corax", "Kolkrabe", "Deutsch", "false");
+
+      for (String id : new String[]{"100", "20", "3", "5", "7"}) {
+        row(doi, "0", "", id, "https://dx.doi.org/10.2305/IUCN.UK.T" + id);
+        row(cre, "0", id, "", "RedListAssessors", "BirdLife International", "", "", "1");
+      }
+
+      // the same synonym listed twice, with a different genus column that is not read
+      row(syn, "20", "Corvus corax", "Corvus maximus", "Corvus", "maximus", "Smith, 1800", "", "");
+      row(syn, "100", "Corvus corax tingitanus", "Corvus tingitanus", "Corvus", "tingitanus", "Irby, 1874", "", "");
+      row(syn, "20", "Corvus corax", "Corax corax", "Corax", "corax", "(Linnaeus, 1758)", "", "");
+      row(syn, "20", "Corvus corax", "Corvus maximus", "Corvuz", "maximus", "Smith, 1800", "", "");
+    }
+    return files;
+  }
+
+  private static void assessment(PrintWriter w, String id, String taxonId, String category, String year) {
+    row(w, id, taxonId, "", category, "", year, "", "3.1", "English", "", "", "", "", "", "", "", "", "", "", "", "false", "false", "Global");
+  }
+
+  private static PrintWriter csv(List<File> files, File dir, String name, String header) throws IOException {
+    File f = new File(dir, name);
+    files.add(f);
+    PrintWriter w = new PrintWriter(f, StandardCharsets.UTF_8);
+    w.print(header);
+    w.print('\n');
+    return w;
+  }
+
+  private static void row(PrintWriter w, String... values) {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        w.print(',');
+      }
+      w.print('"');
+      w.print(values[i]);
+      w.print('"');
+    }
+    w.print('\n');
+  }
+
+  @Test
+  public void parseDownload() throws Exception {
+    File dir = Files.createTempDirectory("iucn").toFile();
+    try {
+      List<File> files = createFixture(dir);
+      BuilderConfig cfg = new BuilderConfig();
+      cfg.repository = dir;
+      cfg.source = "iucn";
+      cfg.noCache = true;
+      ArchiveBuilder builder = new ArchiveBuilder(cfg);
+      File dwca = new File(dir, "dwca");
+      DwcaWriter writer = builder.openWriter(dwca);
+      // a few hundred bytes per table, so every table spills sorted runs
+      assertEquals(4, builder.parseDownload(files, 1200));
+      writer.close();
+
+      Map<String, Record> core = new LinkedHashMap<>();
+      Map<String, List<List<String>>> distributions = new LinkedHashMap<>();
+      Map<String, List<List<String>>> vernaculars = new LinkedHashMap<>();
+      for (StarRecord rec : DwcFiles.fromLocation(dwca.toPath())) {
+        String id = rec.core().id();
+        core.put(id, rec.core());
+        distributions.put(id, values(rec.extension(GbifTerm.Distribution), DISTRIBUTION_TERMS));
+        vernaculars.put(id, values(rec.extension(GbifTerm.VernacularName), VERNACULAR_TERMS));
+      }
+      // taxa in key order, each followed by its synonyms sorted by name
+      assertEquals(Arrays.asList("3", "7", "20", "20_1", "20_2", "100", "100_1"), new ArrayList<>(core.keySet()));
+
+      Record raven = core.get("20");
+      assertEquals("Corvus corax Linnaeus, 1758", raven.value(DwcTerm.scientificName));
+      assertEquals("Linnaeus, 1758", raven.value(DwcTerm.scientificNameAuthorship));
+      assertEquals("CORVIDAE", raven.value(DwcTerm.family));
+      assertEquals("species", raven.value(DwcTerm.taxonRank));
+      assertEquals("accepted", raven.value(DwcTerm.taxonomicStatus));
+      assertEquals("20", raven.value(DwcTerm.acceptedNameUsageID));
+      // the last assessment is cited
+      assertEquals("BirdLife International 2016. Corvus corax Linnaeus, 1758. The IUCN Red List of Threatened Species 2016: https://doi.org/10.2305/IUCN.UK.T20",
+          raven.value(DcTerm.bibliographicCitation));
+      assertEquals("https://www.iucnredlist.org/species/20/2002", raven.value(DcTerm.references));
+      assertEquals(Arrays.asList(
+          Arrays.asList("Global", "least concern", "Present"),
+          Arrays.asList("Global", "Least Concern", "Present")), distributions.get("20"));
+      assertEquals(Arrays.asList(
+          Arrays.asList("Common Raven", "eng", "true"),
+          Arrays.asList("Kolkrabe", "Deutsch", "false")), vernaculars.get("20"));
+
+      // the duplicate synonym is written once
+      Record corax = core.get("20_1");
+      assertEquals("Corax corax", corax.value(DwcTerm.scientificName));
+      assertEquals("(Linnaeus, 1758)", corax.value(DwcTerm.scientificNameAuthorship));
+      assertEquals("synonym", corax.value(DwcTerm.taxonomicStatus));
+      assertEquals("20", corax.value(DwcTerm.acceptedNameUsageID));
+      assertEquals("ANIMALIA", corax.value(DwcTerm.kingdom));
+      assertNull(corax.value(DwcTerm.family));
+      assertEquals(raven.value(DcTerm.bibliographicCitation), corax.value(DcTerm.bibliographicCitation));
+      assertEquals("Corvus maximus", core.get("20_2").value(DwcTerm.scientificName));
+      assertEquals(0, distributions.get("20_1").size());
+
+      Record magpie = core.get("3");
+      assertEquals("Pica pica (Linnaeus, 1758)", magpie.value(DwcTerm.scientificName));
+      assertEquals(Arrays.asList(
+          Arrays.asList("Magpie", "eng", "true"),
+          Arrays.asList("Elster", "deu", "false")), vernaculars.get("3"));
+
+      // no common names and synonyms
+      assertEquals(1, distributions.get("7").size());
+      assertEquals(0, vernaculars.get("7").size());
+
+      Record tingitanus = core.get("100");
+      assertEquals("ssp.", tingitanus.value(DwcTerm.taxonRank));
+      assertEquals("tingitanus", tingitanus.value(DwcTerm.infraspecificEpithet));
+      assertEquals(Arrays.asList(Arrays.asList("Global", "Extinct", "Absent")), distributions.get("100"));
+      assertEquals(0, vernaculars.get("100").size());
+      assertEquals("Corvus tingitanus", core.get("100_1").value(DwcTerm.scientificName));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  private static List<List<String>> values(List<Record> records, Term... terms) {
+    List<List<String>> rows = new ArrayList<>();
+    for (Record rec : records) {
+      List<String> row = new ArrayList<>();
+      for (Term t : terms) {
+        row.add(rec.value(t));
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+}
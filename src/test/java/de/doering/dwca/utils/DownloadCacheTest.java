@@ -0,0 +1,47 @@
+package de.doering.dwca.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DownloadCacheTest {
+
+  @Test
+  public void evict() throws Exception {
+    File dir = Files.createTempDirectory("cache").toFile();
+    try {
+      DownloadCache cache = new DownloadCache(dir);
+      URI fresh = URI.create("http://example.org/fresh.zip");
+      URI stale = URI.create("http://example.org/stale.zip");
+
+      // an old release just downloaded, carrying the server's Last-Modified as its modification time
+      File tmp = cache.newTmpFile();
+      FileUtils.write(tmp, "fresh", StandardCharsets.UTF_8);
+      tmp.setLastModified(System.currentTimeMillis() - Duration.ofDays(365).toMillis());
+      cache.put(fresh, tmp, null, "Mon, 01 Jan 2024 00:00:00 GMT");
+
+      tmp = cache.newTmpFile();
+      FileUtils.write(tmp, "stale", StandardCharsets.UTF_8);
+      cache.put(stale, tmp, "\"1\"", null);
+      cache.get(stale).file.setLastModified(System.currentTimeMillis() - Duration.ofDays(31).toMillis());
+
+      assertEquals(1, cache.evict(Duration.ofDays(30)));
+      DownloadCache.Entry entry = cache.get(fresh);
+      assertNotNull(entry);
+      assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", entry.lastModified);
+      assertEquals("fresh", FileUtils.readFileToString(entry.file, StandardCharsets.UTF_8));
+      assertNull(cache.get(stale));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package de.doering.dwca.utils;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExcelUtilsTest {
+
+  private static XlsxReader.Row row(int num, String... values) {
+    return new XlsxReader.Row(num, values, null, Collections.emptyMap());
+  }
+
+  @Test
+  public void rowView() {
+    ExcelUtils.RowView view = ExcelUtils.view(0, 2, 5);
+    view.read(row(7, " Aves ", "x", "Unassigned family", null));
+    assertEquals(7, view.getRowNum());
+    assertEquals("Aves", view.get(0));
+    assertEquals(" family", view.get(2));
+    assertNull(view.get(5));
+    assertTrue(view.isEmpty(5));
+
+    // values of the previous row are replaced
+    view.read(row(8, "Passeriformes"));
+    assertEquals("Passeriformes", view.get(0));
+    assertNull(view.get(2));
+    assertFalse(view.isEmpty(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void undeclared() {
+    ExcelUtils.view(0, 2).read(row(1, "a", "b", "c")).get(1);
+  }
+}
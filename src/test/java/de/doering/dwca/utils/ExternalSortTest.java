@@ -0,0 +1,94 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.gbif.utils.file.tabular.TabularDataFileReader;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalSortTest {
+
+  private static TabularDataFileReader<List<String>> reader(List<List<String>> rows) {
+    final Iterator<List<String>> iter = rows.iterator();
+    return new TabularDataFileReader<List<String>>() {
+      @Override
+      public List<String> read() {
+        return iter.hasNext() ? iter.next() : null;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  private static List<List<String>> rows() {
+    List<List<String>> rows = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      // keys 0-99 in reverse, each with 10 rows in file order
+      rows.add(Lists.newArrayList(String.valueOf(99 - i % 100), "row" + i, i % 7 == 0 ? null : "x"));
+    }
+    return rows;
+  }
+
+  private void assertSorted(long bufferBytes, boolean spills) throws Exception {
+    File dir = Files.createTempDirectory("sort").toFile();
+    try {
+      ExternalSort sorter = new ExternalSort(dir, bufferBytes);
+      try (ExternalSort.SortedRows sorted = sorter.sort(reader(rows()), 0)) {
+        assertEquals(spills, dir.list().length > 0);
+        // skips keys 0-4
+        List<List<String>> group = sorted.group("5");
+        assertEquals(10, group.size());
+        // stable within the key
+        assertEquals("row94", group.get(0).get(1));
+        assertEquals("row194", group.get(1).get(1));
+        assertEquals("row994", group.get(9).get(1));
+        // keys are ordered numerically, 10 comes after 9
+        assertTrue(sorted.group("9").size() == 10);
+        assertEquals("10", sorted.next().get(0));
+        assertTrue(sorted.group("200").isEmpty());
+        assertFalse(sorted.hasNext());
+      }
+      assertEquals(0, dir.list().length);
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void inMemory() throws Exception {
+    assertSorted(Long.MAX_VALUE, false);
+  }
+
+  @Test
+  public void spilled() throws Exception {
+    assertSorted(4096, true);
+  }
+
+  @Test
+  public void distinctGroups() throws Exception {
+    File dir = Files.createTempDirectory("sort").toFile();
+    try {
+      List<List<String>> rows = Lists.newArrayList();
+      rows.add(Lists.newArrayList("1", "a"));
+      rows.add(Lists.newArrayList("2", "b"));
+      rows.add(Lists.newArrayList("1", "a"));
+      rows.add(Lists.newArrayList("1", "c"));
+      try (ExternalSort.SortedRows sorted = new ExternalSort(dir, 1).sort(reader(rows), 0)) {
+        assertEquals(Lists.newArrayList(Lists.newArrayList("1", "a"), Lists.newArrayList("1", "c")), sorted.group("1"));
+        assertEquals(1, sorted.group("2").size());
+      }
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
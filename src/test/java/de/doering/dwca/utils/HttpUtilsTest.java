@@ -0,0 +1,234 @@
+package de.doering.dwca.utils;
+
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpUtilsTest {
+  private static final String ETAG = "\"v1\"";
+  private static final byte[] BODY = "Abies alba Mill.".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * A local server that honours If-None-Match and counts full downloads.
+   */
+  private static HttpServer server(AtomicInteger downloads) throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/data.txt", ex -> {
+      if (ETAG.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+        ex.sendResponseHeaders(304, -1);
+      } else {
+        downloads.incrementAndGet();
+        ex.getResponseHeaders().add("ETag", ETAG);
+        ex.sendResponseHeaders(200, BODY.length);
+        try (OutputStream out = ex.getResponseBody()) {
+          out.write(BODY);
+        }
+      }
+      ex.close();
+    });
+    server.start();
+    return server;
+  }
+
+  /**
+   * A local server that supports byte ranges and counts the bytes sent.
+   * The same file is served as nohead.bin rejecting HEAD requests
+   * and as norange.bin answering range requests with the whole file.
+   */
+  private static HttpServer rangeServer(byte[] data, AtomicInteger bytesSent) throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    HttpHandler handler = ex -> {
+      ex.getResponseHeaders().add("Accept-Ranges", "bytes");
+      ex.getResponseHeaders().add("ETag", ETAG);
+      String range = ex.getRequestHeaders().getFirst("Range");
+      if ("HEAD".equals(ex.getRequestMethod()) && ex.getRequestURI().getPath().equals("/nohead.bin")) {
+        ex.sendResponseHeaders(405, -1);
+      } else if ("HEAD".equals(ex.getRequestMethod())) {
+        ex.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+        ex.sendResponseHeaders(200, -1);
+      } else if (range != null && !ex.getRequestURI().getPath().equals("/norange.bin")) {
+        String[] fromTo = range.substring("bytes=".length()).split("-");
+        int from = Integer.parseInt(fromTo[0]);
+        int to = Integer.parseInt(fromTo[1]);
+        ex.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+        ex.sendResponseHeaders(206, to - from + 1);
+        try (OutputStream out = ex.getResponseBody()) {
+          out.write(data, from, to - from + 1);
+        }
+        bytesSent.addAndGet(to - from + 1);
+      } else {
+        ex.sendResponseHeaders(200, data.length);
+        try (OutputStream out = ex.getResponseBody()) {
+          out.write(data);
+        }
+        bytesSent.addAndGet(data.length);
+      }
+      ex.close();
+    };
+    server.createContext("/big.bin", handler);
+    server.createContext("/nohead.bin", handler);
+    server.createContext("/norange.bin", handler);
+    server.start();
+    return server;
+  }
+
+  @Test
+  public void segmentedDownload() throws Exception {
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    AtomicInteger bytesSent = new AtomicInteger();
+    HttpServer server = rangeServer(data, bytesSent);
+    File dir = Files.createTempDir();
+    try {
+      URI url = URI.create("http://localhost:" + server.getAddress().getPort() + "/big.bin");
+      HttpUtils http = new HttpUtils(null, null);
+      SegmentedDownload segmented = new SegmentedDownload(http, 4, 10_000);
+
+      File f = new File(dir, "big.bin");
+      assertTrue(segmented.download(url, f, new File(dir, "parts")));
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertEquals(data.length, bytesSent.get());
+      assertFalse(new File(dir, "parts").exists());
+
+      // resume from a first run that failed after 1000 bytes of the 2nd segment
+      bytesSent.set(0);
+      File parts = new File(dir, "parts");
+      FileUtils.forceMkdir(parts);
+      FileUtils.writeStringToFile(new File(parts, "state.properties"),
+          "url=" + url + "\nlength=100000\nsegments=4\nvalidator=" + ETAG + "\n", StandardCharsets.UTF_8);
+      FileUtils.writeByteArrayToFile(new File(parts, "part-1"), Arrays.copyOfRange(data, 25_000, 26_000));
+      assertTrue(segmented.download(url, f, parts));
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertEquals(data.length - 1000, bytesSent.get());
+
+      // too small to be split
+      assertFalse(new SegmentedDownload(http, 4, 60_000).download(url, f, parts));
+
+      // servers ignoring ranges despite announcing them fall back to a single GET
+      URI noRange = URI.create("http://localhost:" + server.getAddress().getPort() + "/norange.bin");
+      FileUtils.deleteQuietly(f);
+      assertTrue(segmented.download(noRange, f, parts));
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertFalse(parts.exists());
+
+      // servers rejecting HEAD get a single GET
+      URI noHead = URI.create("http://localhost:" + server.getAddress().getPort() + "/nohead.bin");
+      assertFalse(segmented.download(noHead, f, parts));
+      bytesSent.set(0);
+      http.setDownloadSegments(4, 10_000);
+      http.download(noHead, f);
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertEquals(data.length, bytesSent.get());
+
+      // cache misses use segments too, without a full GET before
+      http = new HttpUtils(null, null, new File(dir, "cache"));
+      http.setDownloadSegments(4, 10_000);
+      bytesSent.set(0);
+      http.download(url.toString(), f);
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertEquals(data.length, bytesSent.get());
+      bytesSent.set(0);
+      http.download(noHead.toString(), f);
+      assertArrayEquals(data, FileUtils.readFileToByteArray(f));
+      assertEquals(data.length, bytesSent.get());
+
+    } finally {
+      server.stop(0);
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void probe() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", ex -> {
+      boolean exists = ex.getRequestURI().getPath().matches("/v(3|5|6)");
+      ex.sendResponseHeaders(exists ? 200 : 404, -1);
+      ex.close();
+    });
+    server.start();
+    try {
+      String base = "http://localhost:" + server.getAddress().getPort() + "/v";
+      List<String> candidates = new ArrayList<>();
+      for (int v = 20; v > 0; v--) {
+        candidates.add(base + v);
+      }
+      HttpUtils http = new HttpUtils(null, null);
+      assertEquals(base + 6, http.probe(candidates));
+      // the first existing candidate wins, not the first response
+      assertEquals(base + 5, http.probe(candidates.subList(15, 20)));
+      assertNull(http.probe(candidates.subList(0, 10)));
+
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void conditionalDownload() throws Exception {
+    AtomicInteger downloads = new AtomicInteger();
+    HttpServer server = server(downloads);
+    File dir = Files.createTempDir();
+    try {
+      String url = "http://localhost:" + server.getAddress().getPort() + "/data.txt";
+      HttpUtils http = new HttpUtils(null, null, new File(dir, "cache"));
+
+      File f = new File(dir, "data.txt");
+      http.download(url, f);
+      assertEquals("Abies alba Mill.", FileUtils.readFileToString(f, StandardCharsets.UTF_8));
+      // changing the downloaded file must not touch the cache
+      FileUtils.write(f, " changed", StandardCharsets.UTF_8, true);
+      http.download(url, f);
+      assertEquals("Abies alba Mill.", FileUtils.readFileToString(f, StandardCharsets.UTF_8));
+      try (InputStream in = http.getStream(url)) {
+        assertEquals("Abies alba Mill.", IOUtils.toString(in, StandardCharsets.UTF_8));
+      }
+
+      assertEquals(1, downloads.get());
+      assertEquals(2, http.getCache().getHits());
+      assertEquals(1, http.getCache().getMisses());
+
+      // a new instance on the same cache directory starts warm
+      http = new HttpUtils(null, null, new File(dir, "cache"));
+      http.download(url, f);
+      assertEquals(1, downloads.get());
+      assertEquals(1, http.getCache().getHits());
+
+      // recently used entries stay, unused ones are evicted with their derived data
+      File derived = http.getCache().derivedDir(URI.create(url));
+      FileUtils.forceMkdir(derived);
+      assertEquals(0, http.getCache().evict(Duration.ofDays(1)));
+      assertEquals(1, http.getCache().evict(Duration.ZERO.minusDays(1)));
+      assertFalse(derived.exists());
+      http.download(url, f);
+      assertEquals(2, downloads.get());
+
+    } finally {
+      server.stop(0);
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MappedRowStoreTest {
+
+  @Test
+  public void writeAndMap() throws Exception {
+    File dir = Files.createTempDirectory("store").toFile();
+    try {
+      List<List<String>> rows = Lists.newArrayList();
+      for (int key = 1; key <= 200; key++) {
+        // 1, 2 or 3 rows per key, the first with a null value
+        for (int i = 0; i <= key % 3; i++) {
+          rows.add(Lists.newArrayList("\u00c4" + i, String.valueOf(key), i == 0 ? null : "x"));
+        }
+      }
+      assertEquals(rows.size(), MappedRowStore.write(dir, "test", rows.iterator(), 1));
+
+      MappedRowStore store = MappedRowStore.open(dir, "test");
+      Iterator<List<String>> iter = store.iterator();
+      for (List<String> row : rows) {
+        assertEquals(row, iter.next());
+      }
+      assertFalse(iter.hasNext());
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsorted() throws Exception {
+    File dir = Files.createTempDirectory("store").toFile();
+    try {
+      List<List<String>> rows = Lists.newArrayList();
+      rows.add(Lists.newArrayList("10"));
+      rows.add(Lists.newArrayList("9"));
+      MappedRowStore.write(dir, "test", rows.iterator(), 0);
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
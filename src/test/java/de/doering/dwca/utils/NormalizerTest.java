@@ -0,0 +1,52 @@
+package de.doering.dwca.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NormalizerTest {
+
+  @Test
+  public void memoize() {
+    AtomicInteger calls = new AtomicInteger();
+    Normalizer<String> upper = Normalizers.register("test upper", v -> {
+      calls.incrementAndGet();
+      return v.isEmpty() ? null : v.toUpperCase();
+    });
+    for (int i = 0; i < 10; i++) {
+      assertEquals("EN", upper.normalize("en"));
+      assertNull(upper.normalize(""));
+    }
+    assertNull(upper.normalize(null));
+    // one call per distinct value, null results included
+    assertEquals(2, calls.get());
+    assertEquals(18, upper.getHits());
+    assertEquals(2, upper.getMisses());
+    assertEquals(0.9, upper.hitRate(), 0.0001);
+    assertTrue(Normalizers.report().contains("test upper: 2 distinct values"));
+  }
+
+  @Test
+  public void bounded() {
+    AtomicInteger calls = new AtomicInteger();
+    Normalizer<Integer> length = Normalizers.register("test length", v -> {
+      calls.incrementAndGet();
+      return v.length();
+    }, 1);
+    length.normalize("a");
+    length.normalize("bb");
+    length.normalize("bb");
+    assertEquals(3, calls.get());
+    assertEquals(1, (int) length.normalize("a"));
+    assertEquals(3, calls.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void duplicateName() {
+    Normalizers.register("language", v -> v);
+  }
+}
@@ -0,0 +1,26 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProjectionTest {
+
+  @Test
+  public void apply() {
+    Projection p = Projection.of(3, 0, 3);
+    List<String> row = p.apply(Lists.newArrayList("id", "long narrative", "x", "2020", "last"));
+    assertEquals(5, row.size());
+    assertEquals("id", row.get(0));
+    assertNull(row.get(1));
+    assertEquals("2020", row.get(3));
+    assertNull(row.get(4));
+    assertEquals(Lists.newArrayList("id", null, null, "2020", null), row);
+    // short rows keep their own size
+    assertEquals(2, p.apply(Lists.newArrayList("id", "x")).size());
+  }
+}
@@ -0,0 +1,59 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReleaseRegistryTest {
+
+  @Test
+  public void putAndGet() throws Exception {
+    File dir = Files.createTempDirectory("releases").toFile();
+    try {
+      File file = new File(dir, "releases.properties");
+      // a plain url recorded by earlier versions
+      FileUtils.write(file, "clements=https://clements/2024.xlsx\n", StandardCharsets.UTF_8);
+      ReleaseRegistry registry = new ReleaseRegistry(file);
+
+      ReleaseRegistry.Release clements = registry.get("clements");
+      assertEquals("https://clements/2024.xlsx", clements.url);
+      assertNull(clements.etag);
+      assertEquals(Instant.EPOCH, clements.checked);
+      assertNull(registry.get("ioc"));
+
+      Instant now = Instant.parse("2026-10-16T10:15:30Z");
+      registry.put("ioc", new ReleaseRegistry.Release("https://ioc/master.xml", "\"abc\"", null, now,
+          ImmutableMap.of("version", "15.1", "year", "2025")));
+      registry.put("clements", new ReleaseRegistry.Release("https://clements/2025.xlsx", null,
+          "Tue, 12 Aug 2025 10:00:00 GMT", now));
+
+      registry = new ReleaseRegistry(file);
+      ReleaseRegistry.Release ioc = registry.get("ioc");
+      assertEquals("https://ioc/master.xml", ioc.url);
+      assertEquals("\"abc\"", ioc.etag);
+      assertNull(ioc.lastModified);
+      assertEquals(now, ioc.checked);
+      assertEquals("15.1", ioc.get("version"));
+      assertEquals("2025", ioc.get("year"));
+
+      clements = registry.get("clements");
+      assertEquals("https://clements/2025.xlsx", clements.url);
+      assertEquals("Tue, 12 Aug 2025 10:00:00 GMT", clements.lastModified);
+      assertTrue(clements.getAttributes().isEmpty());
+      // the plain legacy entry is replaced
+      assertFalse(FileUtils.readFileToString(file, StandardCharsets.UTF_8).contains("clements=https"));
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
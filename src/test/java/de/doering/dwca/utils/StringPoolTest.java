@@ -0,0 +1,51 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StringPoolTest {
+
+  @Test
+  public void intern() {
+    StringPool pool = new StringPool("test");
+    String rank = pool.intern(1, new String("species"));
+    assertSame(rank, pool.intern(1, new String("species")));
+    // columns have separate dictionaries
+    assertNotSame(rank, pool.intern(2, new String("species")));
+    assertNull(pool.intern(1, null));
+    assertEquals(40 + 7, pool.savedBytes(1));
+    assertEquals(0, pool.savedBytes(2));
+    assertEquals(pool.savedBytes(1), pool.savedBytes());
+  }
+
+  @Test
+  public void distinctColumn() {
+    StringPool pool = new StringPool("test", 10);
+    for (int i = 0; i < 20; i++) {
+      pool.intern(0, String.valueOf(i));
+    }
+    // a full column of distinct keys is no longer pooled
+    String id = pool.intern(0, new String("1"));
+    assertNotSame(id, pool.intern(0, new String("1")));
+    assertEquals(0, pool.savedBytes(0));
+  }
+
+  @Test
+  public void projection() {
+    StringPool pool = new StringPool("test");
+    Projection proj = Projection.of(0, 2);
+    List<String> r1 = proj.apply(Lists.newArrayList("1", "x", new String("Aves")), pool);
+    List<String> r2 = proj.apply(Lists.newArrayList("2", "y", new String("Aves")), pool);
+    assertSame(r1.get(2), r2.get(2));
+    assertNull(r2.get(1));
+    assertTrue(pool.savedBytes(2) > 0);
+  }
+}
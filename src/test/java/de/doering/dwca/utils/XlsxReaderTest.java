@@ -0,0 +1,76 @@
+package de.doering.dwca.utils;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class XlsxReaderTest {
+  private static final List<String> SHARED = Arrays.asList("Abies alba", "Pinaceae", "");
+
+  private static final String SHEET = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+      + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+      + "<sheetData>"
+      + "<row r=\"1\">"
+      + "<c r=\"A1\" t=\"s\"><v>0</v></c>"
+      + "<c r=\"B1\"><v>1850</v></c>"
+      + "<c r=\"C1\"><v>1.5</v></c>"
+      + "<c r=\"E1\" t=\"inlineStr\"><is><r><t>in</t></r><r><t>line</t></r><rPh><t>x</t></rPh></is></c>"
+      + "<c r=\"F1\" t=\"b\"><v>1</v></c>"
+      + "</row>"
+      + "<row r=\"3\">"
+      + "<c r=\"A3\" t=\"s\"><v>1</v></c>"
+      + "<c r=\"B3\" t=\"s\"><v>2</v></c>"
+      + "<c r=\"AA3\" t=\"str\"><f>HYPERLINK(\"https://doi.org/10.1000/1\", \"Title\")</f><v>Title</v></c>"
+      + "</row>"
+      + "</sheetData>"
+      + "<hyperlinks><hyperlink ref=\"A3\" r:id=\"rId1\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"/></hyperlinks>"
+      + "</worksheet>";
+
+  @Test
+  public void rows() throws Exception {
+    try (XlsxReader.Sheet sheet = new XlsxReader.Sheet(new ByteArrayInputStream(SHEET.getBytes(StandardCharsets.UTF_8)),
+        SHARED::get, ImmutableMap.of("A3", "https://www.gbif.org"))) {
+      assertTrue(sheet.hasNext());
+      XlsxReader.Row row = sheet.next();
+      assertEquals(0, row.getRowNum());
+      assertEquals(6, row.size());
+      assertEquals("Abies alba", row.get(0));
+      assertEquals("1850", row.get(1));
+      assertEquals("1.5", row.get(2));
+      assertNull(row.get(3));
+      assertEquals("inline", row.get(4));
+      assertEquals("TRUE", row.get(5));
+      assertNull(row.get(100));
+      assertNull(row.link(0));
+
+      row = sheet.next();
+      assertEquals(2, row.getRowNum());
+      assertEquals(27, row.size());
+      assertEquals("Pinaceae", row.get(0));
+      assertNull(row.get(1));
+      assertEquals("Title", row.get(26));
+      assertEquals("https://www.gbif.org", row.link(0));
+      assertEquals("https://doi.org/10.1000/1", row.link(26));
+      assertFalse(sheet.hasNext());
+    }
+  }
+
+  @Test
+  public void columns() {
+    for (int col : new int[]{0, 1, 25, 26, 27, 51, 52, 701, 702, 16383}) {
+      assertEquals(col, XlsxReader.column(XlsxReader.columnName(col) + "12"));
+    }
+    assertEquals("A", XlsxReader.columnName(0));
+    assertEquals("AA", XlsxReader.columnName(26));
+    assertEquals("XFD", XlsxReader.columnName(16383));
+  }
+}
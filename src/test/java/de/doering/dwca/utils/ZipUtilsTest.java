@@ -0,0 +1,82 @@
+package de.doering.dwca.utils;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipUtilsTest {
+
+  @Test
+  public void zipDir() throws Exception {
+    File dir = Files.createTempDir();
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 10000; i++) {
+        sb.append(i).append("\tAbies alba Mill.\n");
+      }
+      FileUtils.write(new File(dir, "taxon.txt"), sb, StandardCharsets.UTF_8);
+      FileUtils.write(new File(dir, "meta.xml"), "<archive/>", StandardCharsets.UTF_8);
+      FileUtils.write(new File(dir, "sub/eml.xml"), "<eml/>", StandardCharsets.UTF_8);
+
+      for (int level : new int[]{ZipUtils.STORE, 1, -1, 9}) {
+        File zip = new File(dir.getParentFile(), dir.getName() + level + ".zip");
+        ZipUtils.zipDir(dir, zip, level, 3);
+        try (ZipFile zf = new ZipFile(zip)) {
+          assertEquals(3, zf.size());
+          ZipEntry taxa = zf.getEntry("taxon.txt");
+          assertNotNull(taxa);
+          assertEquals(level == ZipUtils.STORE ? ZipEntry.STORED : ZipEntry.DEFLATED, taxa.getMethod());
+          assertEquals(sb.toString(), IOUtils.toString(zf.getInputStream(taxa), StandardCharsets.UTF_8));
+          assertEquals("<eml/>", IOUtils.toString(zf.getInputStream(zf.getEntry("sub/eml.xml")), StandardCharsets.UTF_8));
+        } finally {
+          zip.delete();
+        }
+      }
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void readEntries() throws Exception {
+    File dir = Files.createTempDir();
+    try {
+      FileUtils.write(new File(dir, "download/taxonomy.csv"), "id,name\n1,Abies alba\n", StandardCharsets.UTF_8);
+      FileUtils.write(new File(dir, "download/ITIS.sqlite"), "db", StandardCharsets.UTF_8);
+      File zip = new File(dir.getParentFile(), dir.getName() + ".zip");
+      ZipUtils.zipDir(dir, zip, -1, 1);
+      try {
+        try (TableSource source = TableSource.zip(zip)) {
+          assertEquals("id,name\n1,Abies alba\n", IOUtils.toString(source.open("taxonomy.csv"), StandardCharsets.UTF_8));
+          try {
+            source.open("synonyms.csv");
+            fail("Missing table must not open");
+          } catch (FileNotFoundException e) {
+            // expected
+          }
+        }
+        File db = new File(dir, "itis.sqlite");
+        assertTrue(ZipUtils.extract(zip, "itis.SQLITE", db));
+        assertEquals("db", FileUtils.readFileToString(db, StandardCharsets.UTF_8));
+        assertFalse(ZipUtils.extract(zip, "missing.txt", db));
+      } finally {
+        zip.delete();
+      }
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}